@@ -0,0 +1,210 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * JMH benchmarks for each stage of the forwarding path:
+ *
+ *   send      Computer.send() building a packet and queueing it on its port
+ *   handoff   SwitchPort.sendToNetwork() followed by getIncomingPacket()
+ *   lookup    NetworkSwitch forwarding decision for a learned destination
+ *   deliver   Computer.sendToComputer() followed by poll()
+ *
+ * Each benchmark runs single threaded (no switch or application threads
+ * are started) for every payload size, port count and host count that
+ * applies to it. Build and run with
+ *
+ *   mvn -Pjmh package
+ *   java -jar target/benchmarks.jar ForwardingBenchmark [-p payloadSize=1500]
+ *
+ * Results are in nanoseconds per operation.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class ForwardingBenchmark {
+
+    private static InetAddress hostAddress(int host) {
+        return Packet.toInetAddress(0x0A000000 | (host + 1));
+    }
+
+
+    /*
+     * A computer attached to a port of no switch, so that
+     * the benchmark takes what it sends off the port itself.
+     */
+    @State(Scope.Thread)
+    public static class SendState {
+
+        @Param({ "16", "256", "1500", "16384" })
+        int payloadSize;
+
+        Computer computer;
+        SwitchPort port;
+        byte[] payload;
+        InetAddress destination;
+
+        @Setup
+        public void setUp() {
+            computer = new Computer("A", hostAddress(0));
+            port = new SwitchPort(0);
+            port.connectNetworkCard(computer);
+            computer.connectPort(port);
+            payload = new byte[payloadSize];
+            destination = hostAddress(1);
+        }
+
+    }
+
+    /*
+     * Computer.send(): header and payload assembly plus the
+     * hand-off into the ingress queue of the attached port.
+     */
+    @Benchmark
+    public int send(SendState state) {
+        state.computer.send(state.payload, state.destination, 20000, 9999);
+        Packet packet = state.port.getIncomingPacket();
+        int length = packet.getLength();
+        packet.release();
+        return length;
+    }
+
+
+    @State(Scope.Thread)
+    public static class HandoffState {
+
+        @Param({ "16", "256", "1500", "16384" })
+        int payloadSize;
+
+        SwitchPort port;
+        Packet packet;
+
+        @Setup
+        public void setUp() {
+            port = new SwitchPort(0);
+            port.connectNetworkCard(new Computer("A", hostAddress(0)));
+            packet = Packet.create(Packet.toInt(hostAddress(0)), Packet.toInt(hostAddress(1)),
+                                   20000, 9999, new byte[payloadSize], false);
+        }
+
+    }
+
+    /*
+     * SwitchPort.sendToNetwork() and getIncomingPacket() for a prebuilt packet.
+     */
+    @Benchmark
+    public int handoff(HandoffState state) {
+        state.port.sendToNetwork(state.packet);
+        return state.port.getIncomingPacket().getDestinationPort();
+    }
+
+
+    /*
+     * A switch which has learned the given number of hosts spread over
+     * its ports. Egress ports count and discard what they are sent.
+     */
+    @State(Scope.Thread)
+    public static class LookupState {
+
+        @Param({ "4", "48" })
+        int portCount;
+
+        @Param({ "16", "1024", "65536" })
+        int hostCount;
+
+        NetworkSwitch networkSwitch;
+        Packet[] packets;
+        long now;
+        int next = 0;
+        final long[] delivered = new long[1];
+
+        @Setup
+        public void setUp() {
+            networkSwitch = new NetworkSwitch(portCount);
+            for (int i = 0; i < portCount; i++) {
+                final InetAddress address = hostAddress(i);
+                networkSwitch.getPort(i).connectNetworkCard(new NetworkCard() {
+                    public InetAddress getIPAddress() { return address; }
+                    public void connectPort(SwitchPort lanPort) { }
+                    public void sendToComputer(Packet packet) { delivered[0]++; }
+                    public boolean offerToComputer(Packet packet) { delivered[0]++; return true; }
+                });
+            }
+
+            // Teach the switch where every host is by forwarding one packet from each.
+            now = System.nanoTime();
+            networkSwitch.maintainTable(now);
+            packets = new Packet[hostCount];
+            for (int host = 0; host < hostCount; host++) {
+                int src = Packet.toInt(hostAddress(host));
+                int dst = Packet.toInt(hostAddress((host + 1) % hostCount));
+                packets[host] = Packet.create(src, dst, 20000, 9999, new byte[16], false);
+                networkSwitch.forward(packets[host], host % portCount, now);
+            }
+        }
+
+    }
+
+    /*
+     * The switch's forwarding decision: learning the source
+     * and looking up the destination.
+     */
+    @Benchmark
+    public long lookup(LookupState state) {
+        int host = state.next;
+        state.next = host + 1 == state.hostCount ? 0 : host + 1;
+        state.networkSwitch.forward(state.packets[host], host % state.portCount, state.now);
+        return state.delivered[0];
+    }
+
+
+    @State(Scope.Thread)
+    public static class DeliverState {
+
+        @Param({ "16", "256", "1500", "16384" })
+        int payloadSize;
+
+        Computer computer;
+        Packet packet;
+
+        @Setup
+        public void setUp() {
+            computer = new Computer("B", hostAddress(1));
+            packet = Packet.create(Packet.toInt(hostAddress(0)), Packet.toInt(hostAddress(1)),
+                                   20000, 9999, new byte[payloadSize], false);
+        }
+
+    }
+
+    /*
+     * Computer.sendToComputer() queueing a packet on its destination
+     * port, followed by the application taking the payload with poll().
+     */
+    @Benchmark
+    public byte[] deliver(DeliverState state) {
+        state.computer.sendToComputer(state.packet);
+        return state.computer.poll(9999);
+    }
+
+}
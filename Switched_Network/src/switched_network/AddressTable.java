@@ -0,0 +1,202 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.Arrays;
+
+/**
+ *
+ * The forwarding table of a network switch, mapping a raw 32 bit
+ * IPv4 address (as read from a packet header) to a port number.
+ *
+ * Uses open addressing with linear probing over primitive arrays,
+ * so looking up an address never allocates or boxes anything.
+ *
+ * Each entry also records when it was last added or refreshed so
+ * that learned entries can be aged out. Entries added without a
+ * timestamp are static and never age.
+ *
+ * Not thread safe; the NetworkSwitch guards it with a read/write lock.
+ *
+ */
+public class AddressTable {
+
+    // Marks an empty slot in the ports array.
+    private final static int EMPTY = -1;
+
+    private final static int DEFAULT_CAPACITY = 64;
+
+    // Timestamp given to entries which never age.
+    private final static long STATIC = Long.MAX_VALUE;
+
+    private int[] addresses;
+    private int[] ports;
+    private long[] timestamps;
+    private int size = 0;
+
+
+    public AddressTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public AddressTable(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    /*
+     * Get the port associated with the address, or -1 if there is none.
+     */
+    public int get(int address) {
+        int mask = ports.length - 1;
+        for (int i = hash(address) & mask; ports[i] != EMPTY; i = (i + 1) & mask) {
+            if (addresses[i] == address) return ports[i];
+        }
+        return EMPTY;
+    }
+
+    /*
+     * Get the time the address was last added or refreshed,
+     * Long.MAX_VALUE for a static entry, or Long.MIN_VALUE if
+     * the address is not present.
+     */
+    public long getTimestamp(int address) {
+        int mask = ports.length - 1;
+        for (int i = hash(address) & mask; ports[i] != EMPTY; i = (i + 1) & mask) {
+            if (addresses[i] == address) return timestamps[i];
+        }
+        return Long.MIN_VALUE;
+    }
+
+    public boolean containsKey(int address) {
+        return get(address) != EMPTY;
+    }
+
+    /*
+     * Associate the address with a port, replacing any previous port.
+     * The entry is static and is never aged out.
+     */
+    public void put(int address, int port) {
+        put(address, port, STATIC);
+    }
+
+    /*
+     * Associate the address with a port, replacing any previous port,
+     * and record the time (in any unit) that it was seen.
+     */
+    public void put(int address, int port, long timestamp) {
+        if (port < 0) {
+            throw new IllegalArgumentException("Port number must not be negative: " + port);
+        }
+
+        int mask = ports.length - 1;
+        int i = hash(address) & mask;
+        for (; ports[i] != EMPTY; i = (i + 1) & mask) {
+            if (addresses[i] == address) {
+                ports[i] = port;
+                timestamps[i] = timestamp;
+                return;
+            }
+        }
+
+        addresses[i] = address;
+        ports[i] = port;
+        timestamps[i] = timestamp;
+        size++;
+
+        // Keep the table at most half full so probe sequences stay short.
+        if (size * 2 > ports.length) resize(ports.length * 2);
+    }
+
+    /*
+     * Remove the address, returning its port or -1 if it was not present.
+     */
+    public int remove(int address) {
+        int mask = ports.length - 1;
+        int i = hash(address) & mask;
+        for (; ports[i] != EMPTY; i = (i + 1) & mask) {
+            if (addresses[i] == address) break;
+        }
+        if (ports[i] == EMPTY) return EMPTY;
+
+        int port = ports[i];
+
+        // Shift later entries of the probe sequence back into the gap.
+        int gap = i;
+        for (int j = (gap + 1) & mask; ports[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hash(addresses[j]) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                addresses[gap] = addresses[j];
+                ports[gap] = ports[j];
+                timestamps[gap] = timestamps[j];
+                gap = j;
+            }
+        }
+        ports[gap] = EMPTY;
+        size--;
+
+        return port;
+    }
+
+    /*
+     * Remove every entry last seen before the given time.
+     * Static entries are kept. Returns the number of entries removed.
+     */
+    public int removeOlderThan(long time) {
+        int removed = 0;
+        int i = 0;
+        while (i < ports.length) {
+            // Removal may shift a later entry into this slot, so check it again.
+            if (ports[i] != EMPTY && timestamps[i] < time) {
+                remove(addresses[i]);
+                removed++;
+            } else {
+                i++;
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(ports, EMPTY);
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        int[] oldAddresses = addresses;
+        int[] oldPorts = ports;
+        long[] oldTimestamps = timestamps;
+
+        allocate(capacity);
+        size = 0;
+
+        for (int i = 0; i < oldPorts.length; i++) {
+            if (oldPorts[i] != EMPTY) put(oldAddresses[i], oldPorts[i], oldTimestamps[i]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        addresses = new int[capacity];
+        ports = new int[capacity];
+        timestamps = new long[capacity];
+        Arrays.fill(ports, EMPTY);
+    }
+
+    /*Addresses on a LAN are often consecutive, so spread the bits*/
+    private static int hash(int address) {
+        int h = address * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 2;
+        while (capacity < expectedSize * 2) capacity <<= 1;
+        return capacity;
+    }
+
+}
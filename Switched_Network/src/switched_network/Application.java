@@ -4,17 +4,37 @@
 
 package switched_network;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Represents a 'Default Application' that only prints out information about itself.
  * All real applications should extend this 'Default Application'.
+ *
+ * An application is not a thread itself: start() hands it to an
+ * ApplicationLauncher which decides what runs it (a platform thread
+ * per application by default, or virtual threads / a shared executor
+ * for very large simulations). Applications should check isStopped()
+ * and treat an interrupt as a request to stop.
  * 
  * @author K. Bryson.
  */
-public class Application extends Thread {
+public class Application implements Runnable {
 
     private String programName;
     private ComputerOS computerOS;
 
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean stopped = false;
+
+    // The thread running the application, while it is running. Only set,
+    // cleared or interrupted holding runLock, so that stop() can never
+    // interrupt a thread which has moved on to other work.
+    private volatile Thread thread = null;
+    private final Object runLock = new Object();
+
 
     public Application(String programName, ComputerOS computerOS) {
 
@@ -31,6 +51,93 @@ public class Application extends Thread {
         return computerOS;
     }
 
+
+    /*
+     * Start the application using the default launcher.
+     */
+    public void start() {
+        start(ApplicationLauncher.getDefault());
+    }
+
+    /*
+     * Start the application using the given launcher.
+     * An application can only be started once.
+     */
+    public void start(ApplicationLauncher launcher) {
+        if (!started.compareAndSet(false, true)) {
+            throw new IllegalStateException(programName + " has already been started");
+        }
+        launcher.launch(this);
+    }
+
+    /*
+     * Ask the application to stop, interrupting it if it is
+     * waiting (e.g. sleeping or in recv()).
+     */
+    public void stop() {
+        stopped = true;
+
+        synchronized (runLock) {
+            if (thread != null) thread.interrupt();
+        }
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    /*
+     * Wait for the application to finish.
+     */
+    public void join() throws InterruptedException {
+        finished.await();
+    }
+
+    /*
+     * Wait at most the given time for the application to finish.
+     * Returns false if it is still running.
+     */
+    public boolean join(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /*
+     * Pause the application for the given number of milliseconds.
+     * Goes through the ComputerOS so that simulated computers
+     * sleep in virtual time.
+     */
+    protected void sleep(long millis) throws InterruptedException {
+        computerOS.sleep(millis);
+    }
+
+    /*
+     * Used by the ApplicationLauncher on whatever thread it chooses.
+     */
+    void execute() {
+        synchronized (runLock) {
+            thread = Thread.currentThread();
+        }
+        try {
+            // Stopped before it got the chance to run.
+            if (!stopped) run();
+
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+
+        } finally {
+            synchronized (runLock) {
+                thread = null;
+                // Clear any stop() interrupt, none can arrive after this.
+                Thread.interrupted();
+            }
+            finished.countDown();
+        }
+    }
+
     
     /*
      * A "Default Application" that just prints some information.
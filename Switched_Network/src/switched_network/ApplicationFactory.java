@@ -0,0 +1,18 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+/**
+ *
+ * Creates an application to run on a computer of a network built by
+ * NetworkBuilder. The arguments are those given with the application
+ * in the builder or topology file.
+ *
+ */
+public interface ApplicationFactory {
+
+    public Application create(ComputerOS computerOS, String[] args) throws Exception;
+
+}
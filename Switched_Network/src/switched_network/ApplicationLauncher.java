@@ -0,0 +1,120 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ *
+ * Decides which threads the applications of a simulation run on.
+ *
+ * platformThreads() gives every application its own OS thread, which
+ * is how applications used to run. virtualThreads() runs each one on
+ * a virtual thread when the JVM supports them (Java 21 onwards), so
+ * that hundreds of thousands of applications fit in one JVM. Any other
+ * Executor can also be used, e.g. a fixed size thread pool.
+ *
+ */
+public class ApplicationLauncher {
+
+    private static volatile ApplicationLauncher defaultLauncher = platformThreads();
+
+    private final Executor executor;
+
+
+    public ApplicationLauncher(Executor executor) {
+
+        this.executor = executor;
+
+    }
+
+    /*
+     * Run every application on a new platform thread.
+     */
+    public static ApplicationLauncher platformThreads() {
+
+        return new ApplicationLauncher(new Executor() {
+            public void execute(Runnable task) {
+                new Thread(task).start();
+            }
+        });
+
+    }
+
+    /*
+     * Run every application on a new virtual thread, or on a new
+     * platform thread if this JVM does not have virtual threads.
+     */
+    public static ApplicationLauncher virtualThreads() {
+
+        ExecutorService executor = newVirtualThreadExecutor();
+        return executor == null ? platformThreads() : new ApplicationLauncher(executor);
+
+    }
+
+    /*
+     * Whether virtual threads are available in this JVM.
+     */
+    public static boolean hasVirtualThreads() {
+
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+
+    }
+
+    /*
+     * The launcher used by Application.start().
+     */
+    public static ApplicationLauncher getDefault() {
+        return defaultLauncher;
+    }
+
+    public static void setDefault(ApplicationLauncher launcher) {
+        defaultLauncher = launcher;
+    }
+
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /*
+     * Run the application using this launcher's executor.
+     */
+    public void launch(final Application application) {
+
+        executor.execute(new Runnable() {
+            public void run() {
+                application.execute();
+            }
+        });
+
+    }
+
+    /*
+     * The project targets Java 7, so the Java 21 factory
+     * method is looked up at run time.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+
+    }
+
+}
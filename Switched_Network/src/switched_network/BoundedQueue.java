@@ -0,0 +1,221 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * A fixed capacity first-in first-out ring buffer which is
+ * safe to share between threads.
+ *
+ * When the queue is full, add() either blocks or drops the
+ * element depending on the OverflowPolicy of the queue.
+ *
+ */
+public class BoundedQueue<E> {
+
+    private final Object[] items;
+    private final OverflowPolicy policy;
+
+    private int head = 0;
+    private int count = 0;
+    private long dropped = 0;
+
+    private Lock lock = new ReentrantLock();
+    private Condition notEmpty = lock.newCondition();
+    private Condition notFull = lock.newCondition();
+
+
+    public BoundedQueue(int capacity, OverflowPolicy policy) {
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1: " + capacity);
+        }
+
+        this.items = new Object[capacity];
+        this.policy = policy;
+
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /*
+     * Add an element according to the overflow policy of the queue.
+     *
+     * Returns false if the queue was full and the element was dropped.
+     */
+    public boolean add(E item) throws InterruptedException {
+        lock.lock();
+        try {
+            if (count == items.length) {
+                if (policy == OverflowPolicy.DROP_TAIL) {
+                    dropped++;
+                    return false;
+                }
+                while (count == items.length) notFull.await();
+            }
+            enqueue(item);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Add an element if there is room, otherwise drop it and count
+     * it as dropped whatever the policy. Never blocks.
+     */
+    public boolean addOrDrop(E item) {
+        lock.lock();
+        try {
+            if (count == items.length) {
+                dropped++;
+                return false;
+            }
+            enqueue(item);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Add an element only if there is room, never blocks.
+     */
+    public boolean offer(E item) {
+        lock.lock();
+        try {
+            if (count == items.length) return false;
+            enqueue(item);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Remove the oldest element, or return null if the queue is empty.
+     */
+    public E poll() {
+        lock.lock();
+        try {
+            if (count == 0) return null;
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Remove the oldest element, waiting for one to arrive if necessary.
+     */
+    public E take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == 0) notEmpty.await();
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Remove the oldest element, waiting up to the given time for
+     * one to arrive. Returns null if the time runs out.
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Remove up to max elements, oldest first, without waiting.
+     * Returns the number of elements removed.
+     */
+    public int drainTo(Collection<? super E> into, int max) {
+        lock.lock();
+        try {
+            int n = Math.min(count, max);
+            for (int i = 0; i < n; i++) into.add(dequeue());
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Remove up to max elements, oldest first, waiting for at
+     * least one to arrive. Returns the number of elements removed.
+     */
+    public int take(Collection<? super E> into, int max) throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == 0) notEmpty.await();
+            int n = Math.min(count, max);
+            for (int i = 0; i < n; i++) into.add(dequeue());
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Number of elements thrown away because the queue was full.
+     */
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(E item) {
+        items[(head + count) % items.length] = item;
+        count++;
+        notEmpty.signal();
+    }
+
+    @SuppressWarnings("unchecked")
+    private E dequeue() {
+        E item = (E) items[head];
+        items[head] = null;
+        head = (head + 1) % items.length;
+        count--;
+        notFull.signal();
+        return item;
+    }
+
+}
@@ -5,10 +5,12 @@
 package switched_network;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -28,23 +30,267 @@ public class Computer implements ComputerOS, NetworkCard {
 
     private final String hostname;
     private final InetAddress ipAddress;
+    private final int address;
 
     // This is the switch port which the computer is attached to.
     private SwitchPort port = null;
 
     private final static int MAX_PORTS = 65536;
+
+    public final static int DEFAULT_RECEIVE_QUEUE_CAPACITY = 16;
     
-    private ConcurrentHashMap<Integer, byte[]> table;
-    private Lock lock = new ReentrantLock();
-    private Condition isMemoryClear = lock.newCondition();
+    // Messages waiting for an application to read them, a bounded queue per port.
+    private PortMap<BoundedQueue<Packet>> table;
+
+    // Header form of recently used destination addresses, so that
+    // sending does not need InetAddress.getAddress() (which copies).
+    private final static int ADDRESS_CACHE_SIZE = 1024;
+    private ConcurrentHashMap<InetAddress, Integer> addressCache;
+
+    // Settings used for receive queues created from now on. By default a full
+    // queue drops (and counts) new messages, so a slow application never holds
+    // up the switch.
+    private volatile int receiveQueueCapacity = DEFAULT_RECEIVE_QUEUE_CAPACITY;
+    private volatile OverflowPolicy receivePolicy = OverflowPolicy.DROP_TAIL;
+
+    // Whether unpooled packets are built in direct (off-heap) buffers.
+    private volatile boolean directBuffers = false;
+
+    // Where outgoing packets come from, or null to allocate each one.
+    private volatile PacketPool packetPool = PacketPool.getDefault();
+
+    private final ComputerMetrics metrics = new ComputerMetrics(this);
+
+    // Whether packets are time stamped so their latency can be measured.
+    private volatile boolean latencyTracking = true;
+
+    // The simulation of the switch this computer is connected to, if any.
+    // The computer then sleeps and waits for messages in virtual time,
+    // and a full receive queue always drops, as the switch cannot wait.
+    private volatile Simulation simulation = null;
+
+    // Multicast groups joined, sorted, replaced whenever one is joined or left.
+    // The switch is told of each, so that it only sends the groups this computer wants.
+    private volatile int[] groups = new int[0];
+
+    // Shapes everything sent, null if unlimited.
+    private volatile TokenBucket shaper = null;
+    // Shapers of single source ports, only looked at once one has been set.
+    private final PortMap<TokenBucket> portShapers = new PortMap<TokenBucket>();
+    private volatile boolean portShaping = false;
+    
+    public final static int DEFAULT_MTU = PacketPool.MAX_CAPACITY;
+    public final static int MIN_MTU = 68;
+    
+    public final static int DEFAULT_REASSEMBLY_BYTES = 16 * 1024 * 1024;
+    public final static long DEFAULT_REASSEMBLY_TIMEOUT_MILLIS = 10000;
+    
+    // Largest packet sent, header included.
+    private volatile int mtu = DEFAULT_MTU;
+    private final AtomicInteger messageIds = new AtomicInteger();
+    
+    private final Reassembler reassembler = new Reassembler(DEFAULT_REASSEMBLY_BYTES, Reassembler.UNLIMITED,
+    		TimeUnit.MILLISECONDS.toNanos(DEFAULT_REASSEMBLY_TIMEOUT_MILLIS));
+    // Ports which receive fragments as they arrive, only looked at once one has been set.
+    private final PortMap<Boolean> streamingPorts = new PortMap<Boolean>();
+    private volatile boolean streaming = false;
     
 
     public Computer(String hostname, InetAddress ipAddress) {
 
         this.hostname = hostname;
         this.ipAddress = ipAddress;
-        this.table = new ConcurrentHashMap<Integer, byte[]>();
+        this.address = Packet.toInt(ipAddress);
+        this.table = new PortMap<BoundedQueue<Packet>>();
+        this.addressCache = new ConcurrentHashMap<InetAddress, Integer>();
+
+    }
+
+    /*
+     * Set the depth and overflow policy of the receive queues
+     * of any ports which have not yet received a message.
+     */
+    public void configureReceiveQueues(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1: " + capacity);
+        }
+        this.receiveQueueCapacity = capacity;
+        this.receivePolicy = policy;
+    }
+
+    /*
+     * Set the depth and overflow policy of the receive queue of
+     * a single port. Any messages waiting on the port are discarded,
+     * so this should be done before an application listens on it.
+     */
+    public void configureReceiveQueue(int port, int capacity, OverflowPolicy policy) {
+        table.put(port, new BoundedQueue<Packet>(capacity, policy));
+    }
+
+    /*
+     * Choose whether outgoing packets are built in direct (off-heap)
+     * byte buffers rather than on the Java heap. Only used when the
+     * computer has no packet pool; otherwise the pool decides.
+     */
+    public void setDirectBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+    }
+
+    /*
+     * Set the pool outgoing packets are taken from,
+     * or null to allocate a new packet for every message.
+     * A packet goes back to the pool once the receiving computer
+     * has copied the payload out (or it has been dropped), so
+     * steady state traffic does not allocate.
+     */
+    public void setPacketPool(PacketPool packetPool) {
+        this.packetPool = packetPool;
+    }
+
+    public PacketPool getPacketPool() {
+        return packetPool;
+    }
+
+    /*
+     * Limit everything this computer sends to the rate in bits per
+     * second, allowing bursts of up to the given bytes (see TokenBucket).
+     * A rate of 0 removes the limit. send() waits until the packet
+     * conforms, so a greedy application is slowed down rather than
+     * flooding the switch; a simulated event which cannot wait has its
+     * packets sent later instead. The clock is only read for shaping
+     * when a shaper is set, and once for a whole sendBatch().
+     */
+    public void setShaper(long bitsPerSecond, int burstBytes) {
+        shaper = bitsPerSecond == 0 ? null : new TokenBucket(bitsPerSecond, burstBytes);
+    }
+
+    /*
+     * As above for what is sent from one source port, on top of
+     * any limit on the whole computer.
+     */
+    public void setShaper(int port, long bitsPerSecond, int burstBytes) {
+        portShapers.put(port, bitsPerSecond == 0 ? null : new TokenBucket(bitsPerSecond, burstBytes));
+        if (bitsPerSecond != 0) portShaping = true;
+    }
+
+    /*
+     * The shaper of the whole computer, or null if there is none.
+     */
+    public TokenBucket getShaper() {
+        return shaper;
+    }
+
+    public TokenBucket getShaper(int port) {
+        return portShapers.get(port);
+    }
+
+    /*
+     * Set the largest packet this computer sends, header included.
+     * Longer messages are sent as fragments (see Packet), each built
+     * and passed to the switch on its own, so a bulk transfer never
+     * needs a packet the size of the whole message and other traffic
+     * can go in between its fragments. As with IP, a message one of
+     * whose fragments is lost on the way is lost as well.
+     */
+    public void setMtu(int mtu) {
+        if (mtu < MIN_MTU || mtu > PacketPool.MAX_CAPACITY) {
+            throw new IllegalArgumentException("MTU must be between " + MIN_MTU
+                    + " and " + PacketPool.MAX_CAPACITY + ": " + mtu);
+        }
+        this.mtu = mtu;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    /*
+     * Set how many bytes of incomplete messages may be held while
+     * their fragments arrive, and how long a message may wait for its
+     * remaining fragments before it is given up. A message which is
+     * the only one being reassembled may go over the budget.
+     * The fragments are kept rather than copied into one buffer (see
+     * Reassembler), so any length of message is received unless a
+     * limit per message is set.
+     */
+    public void configureReassembly(int maxBytes, long timeout, TimeUnit unit) {
+        configureReassembly(maxBytes, Reassembler.UNLIMITED, timeout, unit);
+    }
+
+    /*
+     * As above, also refusing messages longer than maxMessageBytes,
+     * which are counted by getOversizeMessages().
+     */
+    public void configureReassembly(int maxBytes, int maxMessageBytes, long timeout, TimeUnit unit) {
+        if (maxBytes < 1 || maxMessageBytes < 1 || timeout < 1) {
+            throw new IllegalArgumentException("Reassembly limits and timeout must be positive");
+        }
+        reassembler.configure(maxBytes, maxMessageBytes, unit.toNanos(timeout));
+    }
+
+    /*
+     * Number of messages given up before all their fragments arrived,
+     * and of fragments which did not fit their message.
+     */
+    public long getReassemblyFailures() {
+        return reassembler.getFailures();
+    }
 
+    /*
+     * Number of messages refused for being longer than the limit per message.
+     */
+    public long getOversizeMessages() {
+        return reassembler.getOversizeMessages();
+    }
+
+    /*
+     * Bytes held for messages still waiting for fragments.
+     */
+    public long getReassemblyPendingBytes() {
+        return reassembler.getPendingBytes();
+    }
+
+    /*
+     * Choose whether the time from send() to delivery is recorded in
+     * the latency histogram. Costs a clock read at each end.
+     */
+    public void setLatencyTracking(boolean latencyTracking) {
+        this.latencyTracking = latencyTracking;
+    }
+
+    /*
+     * Packet and byte counts and delivery latencies for this computer.
+     */
+    public ComputerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /*
+     * Number of messages waiting to be received on the given port.
+     */
+    public int getQueueLength(int port) {
+        BoundedQueue<Packet> queue = table.get(port);
+        return queue == null ? 0 : queue.size();
+    }
+
+    /*
+     * Number of messages for the given port dropped because
+     * its receive queue was full.
+     */
+    public long getDroppedPackets(int port) {
+        BoundedQueue<Packet> queue = table.get(port);
+        return queue == null ? 0 : queue.getDropped();
+    }
+
+    /*
+     * Number of messages dropped on all ports of this computer.
+     */
+    public long getDroppedPackets() {
+        long dropped = 0;
+        for (BoundedQueue<Packet> queue : table.values()) {
+            dropped += queue.getDropped();
+        }
+        return dropped;
     }
     
     
@@ -69,81 +315,452 @@ public class Computer implements ComputerOS, NetworkCard {
      * the specified port on the other machine.
      */
     public void send(byte[] payload, InetAddress ip_address_to, int port_from, int port_to) {
+    	send(payload, ip_address_to, port_from, port_to, Packet.DEFAULT_TRAFFIC_CLASS);
+    }
+    
+    public void send(byte[] payload, InetAddress ip_address_to, int port_from, int port_to, int trafficClass) {
     	//don't allow sending packets
-    	if (port_to > MAX_PORTS || port_to < 0) return;
+    	if (port_to >= MAX_PORTS || port_to < 0) return;
     	
-    	lock.lock();
+    	//One clock read serves both the time stamp and the shapers
+    	long now = latencyTracking || isShaping() ? now() : 0;
     	
-    	byte[] packet = null;
-    	try {
-	    	byte[] src_address = ipAddress.getAddress();
-	        byte[] dst_address = ip_address_to.getAddress();
-	        byte[] src_port = getPortBytes(port_from);
-	        byte[] dst_port = getPortBytes(port_to);
-	  
-	        packet = getPacket(src_address, dst_address, src_port, dst_port, payload);
-    	} finally {
-    		lock.unlock();
+    	if (payload.length > mtu - Packet.HEADER_LENGTH) {
+    		sendFragments(toInt(ip_address_to), port_from, port_to, trafficClass, payload, now, 0);
+    		return;
     	}
     	
+    	//Header and payload are written straight into one buffer.
+    	//Nothing here is shared, so no lock is needed.
+    	Packet packet = createPacket(toInt(ip_address_to), port_from, port_to, trafficClass, payload, now);
+    	
+    	long delay = shapingDelay(port_from, packet.getLength(), now);
+    	if (delay > 0 && !waitToSend(packet, delay)) return;
+    	
     	this.port.sendToNetwork(packet);	
     }
     
-    /*Convert decimal to 16 bit*/
-    private byte[] getPortBytes(int port_number) {
-    	byte[] data = new byte[2];
-        data[0] = (byte) (port_number & 0xFF);
-        data[1] = (byte) ((port_number >> 8) & 0xFF);
-        return data;
-    }
-    
-    /*Combine bytes of data into a byte array packet*/
-    private byte[] getPacket(byte[] src_address, byte[] dst_address, byte[] src_port, 
-    						byte[] dst_port, 	byte[] payload) {
-    	byte[] packet = new byte[12 + payload.length];
-    	
-    	int offset = 0;
-    	System.arraycopy(src_address, 0, packet, offset, src_address.length);
-    	offset += src_address.length;
-    	System.arraycopy(dst_address, 0, packet, offset, dst_address.length);
-    	offset += dst_address.length;
-    	System.arraycopy(src_port, 0, packet, offset, src_port.length);
-    	offset += src_port.length;
-    	System.arraycopy(dst_port, 0, packet, offset, dst_port.length);
-    	offset += dst_port.length;
-    	System.arraycopy(payload, 0, packet, offset, payload.length);
+    /*
+     * Send a message too long for one packet as fragments sharing a new
+     * message id. Each fragment is built and shaped in turn and handed to
+     * the switch port straight away, so the message is only copied a
+     * fragment at a time. Takes and returns how long the caller has
+     * already waited after now for shaping.
+     */
+    private long sendFragments(int dst_address, int port_from, int port_to, int trafficClass, byte[] message,
+    						   long now, long waited) {
+    	int messageId = messageIds.incrementAndGet();
+    	int maxPayload = mtu - Packet.HEADER_LENGTH;
+    	
+    	for (int offset = 0; offset < message.length; offset += maxPayload) {
+    		int n = Math.min(maxPayload, message.length - offset);
+    		Packet packet = createPacket(dst_address, port_from, port_to, trafficClass,
+    									 messageId, message, offset, n, now);
+    		
+    		long delay = shapingDelay(port_from, packet.getLength(), now);
+    		if (delay > waited) {
+    			if (!waitToSend(packet, delay - waited)) continue;
+    			waited = delay;
+    		}
+    		this.port.sendToNetwork(packet);
+    	}
+    	return waited;
+    }
+    
+    /*Build a packet from this computer, using the pool if there is one*/
+    private Packet createPacket(int dst_address, int port_from, int port_to, int trafficClass, byte[] payload,
+    							long now) {
+    	return createPacket(dst_address, port_from, port_to, trafficClass, 0, payload, 0, payload.length, now);
+    }
+    
+    private Packet createPacket(int dst_address, int port_from, int port_to, int trafficClass,
+    							int messageId, byte[] message, int offset, int length, long now) {
+    	PacketPool pool = packetPool;
+    	Packet packet;
+    	if (pool == null) {
+    		packet = Packet.create(address, dst_address, port_from, port_to, trafficClass,
+    							   messageId, message, offset, length, directBuffers);
+    	} else {
+    		packet = pool.create(address, dst_address, port_from, port_to, trafficClass,
+    							 messageId, message, offset, length);
+    	}
+    	
+    	metrics.packetSent(packet.getLength());
+    	if (latencyTracking) packet.setTimestamp(now);
     	return packet;
+    }
+    
+    private boolean isShaping() {
+    	return shaper != null || portShaping;
+    }
+    
+    /*How long after now the packet may be sent, taking its tokens from the shapers*/
+    private long shapingDelay(int port_from, int length, long now) {
+    	long delay = 0;
+    	
+    	TokenBucket bucket = shaper;
+    	if (bucket != null) delay = bucket.consume(length, now);
+    	
+    	if (portShaping && port_from >= 0 && port_from < MAX_PORTS) {
+    		bucket = portShapers.get(port_from);
+    		if (bucket != null) delay = Math.max(delay, bucket.consume(length, now));
+    	}
+    	
+    	if (delay > 0) metrics.packetShaped(delay);
+    	return delay;
+    }
+    
+    /*
+     * Wait out the shaping delay of a packet. A simulated event cannot
+     * wait, so its packet is sent by a later event instead and false is
+     * returned.
+     */
+    private boolean waitToSend(final Packet packet, long delayNanos) {
+    	Simulation sim = simulation;
+    	try {
+    		if (sim == null) {
+    			TimeUnit.NANOSECONDS.sleep(delayNanos);
+    			return true;
+    		}
+    		if (sim.isProcess()) {
+    			sim.sleep(delayNanos);
+    			return true;
+    		}
+    	} catch (InterruptedException e) {
+    		//Send straight away rather than lose the packet
+    		Thread.currentThread().interrupt();
+    		return true;
+    	}
+    	
+    	sim.schedule(delayNanos, TimeUnit.NANOSECONDS, new Runnable() {
+    		public void run() {
+    			port.sendToNetwork(packet);
+    		}
+    	});
+    	return false;
+    }
+    
+    /*Header form of an address, remembered for the addresses used most*/
+    private int toInt(InetAddress ip_address) {
+    	Integer cached = addressCache.get(ip_address);
+    	if (cached != null) return cached;
     	
+    	//Keep the cache bounded by starting again when it is full
+    	if (addressCache.size() >= ADDRESS_CACHE_SIZE) addressCache.clear();
+    	
+    	int converted = Packet.toInt(ip_address);
+    	addressCache.put(ip_address, converted);
+    	return converted;
     }
 
     
     /*
-     * This asks the operating system to check whether any incoming messages
-     * have been received on the given port on this machine.
+     * Send a batch of messages in one call. Consecutive messages to the
+     * same address share one address conversion, and the switch port
+     * is woken once for the whole batch (or for each part of it which
+     * a shaper lets through at once). A message longer than the MTU
+     * ends the part of the batch before it and is sent as fragments.
+     */
+    public void sendBatch(List<Message> messages) {
+    	List<Packet> packets = new ArrayList<Packet>(messages.size());
+    	
+    	InetAddress last_to = null;
+    	int dst_address = 0;
+    	
+    	long now = latencyTracking || isShaping() ? now() : 0;
+    	long waited = 0;
+    	
+    	for (int i = 0; i < messages.size(); i++) {
+    		Message message = messages.get(i);
+    		
+    		//don't allow sending packets
+    		if (message.getPortTo() >= MAX_PORTS || message.getPortTo() < 0) continue;
+    		
+    		if (message.getIPAddressTo() != last_to) {
+    			last_to = message.getIPAddressTo();
+    			dst_address = toInt(last_to);
+    		}
+    		
+    		if (message.getPayload().length > mtu - Packet.HEADER_LENGTH) {
+    			if (!packets.isEmpty()) this.port.sendToNetwork(packets);
+    			packets.clear();
+    			
+    			waited = sendFragments(dst_address, message.getPortFrom(), message.getPortTo(),
+    								   message.getTrafficClass(), message.getPayload(), now, waited);
+    			continue;
+    		}
+    		
+    		Packet packet = createPacket(dst_address, message.getPortFrom(), message.getPortTo(),
+    						message.getTrafficClass(), message.getPayload(), now);
+    		
+    		//Send what may go now, then wait until this packet may go too
+    		long delay = shapingDelay(message.getPortFrom(), packet.getLength(), now);
+    		if (delay > waited) {
+    			if (!packets.isEmpty()) this.port.sendToNetwork(packets);
+    			packets.clear();
+    			
+    			if (!waitToSend(packet, delay - waited)) continue;
+    			waited = delay;
+    		}
+    		packets.add(packet);
+    	}
+    	
+    	if (!packets.isEmpty()) this.port.sendToNetwork(packets);
+    }
+
+    
+    /*
+     * This asks the operating system to wait until a message has
+     * been received on the given port on this machine.
      *
-     * If a message is pending then the 'payload' is returned as a byte array.
+     * The 'payload' is returned as a byte array.
      * (i.e. without any UDP/IP header information)
+     *
+     * Returns null if the waiting thread is interrupted, or at once
+     * for a port outside 0-65535 as nothing can arrive on it.
      */
     public byte[] recv(int port) {
-    	lock.lock();
-    	byte[] payload = null;
+    	if (!isPort(port)) return null;
+    	try {
+    		return consume(receive(port, -1));
+    		
+    	} catch (InterruptedException e) {
+    		//Leave the interrupt for the application to deal with
+    		Thread.currentThread().interrupt();
+    		return null;
+    	}
+    }
+    
+    /*
+     * As recv(port) but waits at most the given time for a message.
+     *
+     * Returns null if no message arrives in time.
+     */
+    public byte[] recv(int port, long timeout, TimeUnit unit) {
+    	if (!isPort(port)) return null;
     	try {
-    		if (table.containsKey(port)) {
-	    		payload = table.get(port);
-	    		table.remove(port);
-	    		
-	    		//Signal one thread that memory is clear
-	    		isMemoryClear.signal();
+    		Packet packet = receive(port, Math.max(0, unit.toNanos(timeout)));
+    		return packet == null ? null : consume(packet);
+    		
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		return null;
+    	}
+    }
+    
+    /*
+     * This asks the operating system to check whether any incoming messages
+     * have been received on the given port on this machine, without waiting.
+     *
+     * If a message is pending then the 'payload' is returned as a byte array,
+     * otherwise null is returned.
+     */
+    public byte[] poll(int port) {
+    	if (!isPort(port)) return null;
+    	BoundedQueue<Packet> queue = table.get(port);
+    	
+    	//Nothing has ever been received on this port
+    	if (queue == null) return null;
+    	
+    	Packet packet = queue.poll();
+    	return packet == null ? null : consume(packet);
+    }
+    
+    /*
+     * As recv(port) but copies the payload into the given buffer instead
+     * of allocating a new array. A payload which is too long for the
+     * buffer is truncated.
+     *
+     * Returns the full length of the payload, or -1 if the waiting
+     * thread is interrupted or the port is outside 0-65535.
+     */
+    public int recv(int port, byte[] buffer) {
+    	if (!isPort(port)) return -1;
+    	try {
+    		Packet packet = receive(port, -1);
+    		int length = packet.copyPayload(buffer);
+    		packet.release();
+    		return length;
+    		
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		return -1;
+    	}
+    }
+    
+    /*
+     * Wait for a packet on the port, for at most the timeout unless it is
+     * negative. Returns null if none arrived in time. Simulated computers
+     * wait in virtual time.
+     */
+    private Packet receive(int port, long timeoutNanos) throws InterruptedException {
+    	BoundedQueue<Packet> queue = getReceiveQueue(port);
+    	Simulation sim = simulation;
+    	
+    	if (sim == null) {
+    		return timeoutNanos < 0 ? queue.take() : queue.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+    	}
+    	
+    	long deadline = sim.now() + timeoutNanos;
+    	Packet packet;
+    	while ((packet = queue.poll()) == null) {
+    		if (timeoutNanos < 0) {
+    			sim.await(queue, -1);
+    		} else if (sim.now() < deadline) {
+    			sim.await(queue, deadline - sim.now());
+    		} else {
+    			return null;
     		}
+    	}
+    	return packet;
+    }
+
+    /*
+     * Choose whether the given port receives the fragments of long
+     * messages as they arrive rather than whole messages. The port's
+     * receive queue then holds fragments, so it should be set before
+     * an application listens on the port. An application which would
+     * rather not wait for a whole message takes each Fragment with
+     * recvFragment() as it arrives.
+     */
+    public void setStreaming(int port, boolean streaming) {
+    	streamingPorts.put(port, streaming ? Boolean.TRUE : null);
+    	if (streaming) this.streaming = true;
+    }
+    
+    /*
+     * Wait for the next fragment on a streaming port, or the next whole
+     * message (as a single fragment) on any other port.
+     *
+     * Returns null if the waiting thread is interrupted, or at once
+     * for a port outside 0-65535.
+     */
+    public Fragment recvFragment(int port) {
+    	if (!isPort(port)) return null;
+    	try {
+    		Packet packet = receive(port, -1);
+    		Fragment fragment = new Fragment(packet);
+    		packet.release();
+    		return fragment;
     		
-		} finally {
-    		lock.unlock();
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		return null;
     	}
+    }
+    
+    private boolean isStreaming(int port_no) {
+    	return streaming && streamingPorts.get(port_no) != null;
+    }
+
+    public synchronized void joinGroup(InetAddress group) {
+    	int joined = checkGroup(group);
+    	int i = Arrays.binarySearch(groups, joined);
+    	if (i >= 0) return;
     	
+    	//Start accepting the group before the switch sends it
+    	int at = -i - 1;
+    	int[] updated = new int[groups.length + 1];
+    	System.arraycopy(groups, 0, updated, 0, at);
+    	updated[at] = joined;
+    	System.arraycopy(groups, at, updated, at + 1, groups.length - at);
+    	groups = updated;
+    	
+    	if (port != null) port.joinGroup(joined);
+    }
+    
+    public synchronized void leaveGroup(InetAddress group) {
+    	int left = checkGroup(group);
+    	int i = Arrays.binarySearch(groups, left);
+    	if (i < 0) return;
+    	
+    	if (port != null) port.leaveGroup(left);
+    	
+    	int[] updated = new int[groups.length - 1];
+    	System.arraycopy(groups, 0, updated, 0, i);
+    	System.arraycopy(groups, i + 1, updated, i, updated.length - i);
+    	groups = updated;
+    }
+    
+    private static int checkGroup(InetAddress group) {
+    	int address = Packet.toInt(group);
+    	if (!Packet.isMulticast(address)) {
+    		throw new IllegalArgumentException("Not a multicast group address: " + group.getHostAddress());
+    	}
+    	return address;
+    }
+    
+    /*Whether a packet to another address is still for this computer*/
+    private boolean receivesFrom(int dst_address) {
+    	return Packet.isBroadcast(dst_address)
+    			|| (Packet.isMulticast(dst_address) && Arrays.binarySearch(groups, dst_address) >= 0);
+    }
+
+    /*
+     * Pause the calling application, in virtual time if the
+     * computer is simulated.
+     */
+    public void sleep(long millis) throws InterruptedException {
+    	Simulation sim = simulation;
+    	if (sim == null) {
+    		Thread.sleep(millis);
+    	} else {
+    		sim.sleep(TimeUnit.MILLISECONDS.toNanos(millis));
+    	}
+    }
+    
+    /*
+     * The simulation this computer runs in, or null if it runs in real time.
+     */
+    Simulation getSimulation() {
+    	return simulation;
+    }
+    
+    /*The time packets are stamped with, virtual if simulated*/
+    private long now() {
+    	Simulation sim = simulation;
+    	return sim == null ? System.nanoTime() : sim.now();
+    }
+
+    /*Copy the payload out for the application and give the packet back to its pool*/
+    private byte[] consume(Packet packet) {
+    	byte[] payload = packet.copyPayload();
+    	packet.release();
     	return payload;
     }
 
 
+    /*
+     * Wait until at least one message has been received on the given
+     * port and then return the payloads of up to maxMessages of the
+     * messages waiting, oldest first, taking the port's queue lock once.
+     *
+     * Returns null if the waiting thread is interrupted.
+     */
+    public List<byte[]> recvBatch(int port, int maxMessages) {
+    	if (!isPort(port)) return null;
+    	List<Packet> packets = new ArrayList<Packet>(Math.min(maxMessages, receiveQueueCapacity));
+    	try {
+    		if (simulation == null) {
+    			getReceiveQueue(port).take(packets, maxMessages);
+    		} else {
+    			packets.add(receive(port, -1));
+    			getReceiveQueue(port).drainTo(packets, maxMessages - 1);
+    		}
+    		
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		return null;
+    	}
+    	
+    	List<byte[]> payloads = new ArrayList<byte[]>(packets.size());
+    	for (int i = 0; i < packets.size(); i++) {
+    		payloads.add(consume(packets.get(i)));
+    	}
+    	return payloads;
+    }
+
+
     /**********************************************************************************
      * The following methods implement the Network Card interface for this computer.
      *
@@ -163,8 +780,12 @@ public class Computer implements ComputerOS, NetworkCard {
      * This allows a port of a network switch
      * to be attached to this computers network card.
      */
-    public void connectPort(SwitchPort port) {
+    public synchronized void connectPort(SwitchPort port) {
         this.port = port;
+        this.simulation = port.getSwitch() == null ? null : port.getSwitch().getSimulation();
+
+        // Groups joined before the computer was connected.
+        for (int group : groups) port.joinGroup(group);
     }
     
 
@@ -172,38 +793,103 @@ public class Computer implements ComputerOS, NetworkCard {
      * This method is used by the Network Switch (SwitchPort)
      * to send a packet of data from the network to this computer.
      */
-    public void sendToComputer(byte[] packet) {
-    	lock.lock();
+    public void sendToComputer(Packet packet) {
+    	queuePacket(packet, true);
+    }
+    
+    public boolean offerToComputer(Packet packet) {
+    	return queuePacket(packet, false);
+    }
+    
+    /*
+     * Queue a packet from the network on its destination port. Unless
+     * allowed to wait, returns false without taking the packet if the
+     * port's queue is full and would make the caller wait.
+     */
+    private boolean queuePacket(Packet packet, boolean wait) {
+    	//Ignore packets flooded by the switch which are not for this computer
+    	int dst_address = packet.getDestinationAddress();
+    	if (dst_address != address && !receivesFrom(dst_address)) {
+    		packet.release();
+    		return true;
+    	}
+    	
+    	//Read before queueing, as a receiver may take and recycle the packet
+    	int length = packet.getLength();
+    	long sent = packet.getTimestamp();
+    	long now = sent == Packet.NO_TIMESTAMP ? 0 : now();
+    	
+    	int port_no = packet.getDestinationPort();
+    	BoundedQueue<Packet> queue = getReceiveQueue(port_no);
+    	Simulation sim = simulation;
+    	
+    	//Put fragments back together unless the port streams them. The
+    	//message is only queued (and counted as received, like any other
+    	//packet) once its last fragment has arrived.
+    	boolean fragment = packet.isFragment() && !isStreaming(port_no);
+    	if (fragment) {
+    		metrics.fragmentReceived(length);
+    		packet = reassembler.add(packet, sent == Packet.NO_TIMESTAMP ? now() : now);
+    		if (packet == null) return true;
+    		metrics.messageReassembled();
+    		length = packet.getLength();
+    		sent = packet.getTimestamp();
+    	}
     	
     	try {
-		    //Extract payload
-		    int payload_size = packet.length - 12;
-		    byte[] payload = extractData(packet, 12, payload_size);
-		    	
-		    //Extract send port number
-		    byte[] send_port = extractData(packet, 10, 2);
-		    int port_no = (send_port[1] & 0xFF) << 8 | send_port[0]& 0xFF;
-		
-		    //Wait until memory at port is used
-    		while (table.containsKey(port_no)) isMemoryClear.await(); 
-    		
-		    table.put(port_no, payload);
+		    //Queue the packet on its destination port, dropping it if the
+		    //port's queue is full. The payload is only copied out by recv().
+		    //A simulated switch runs as an event, so it can never wait.
+		    boolean queued;
+		    if (sim != null) {
+		    	queued = queue.addOrDrop(packet);
+		    } else if (!wait && queue.getPolicy() == OverflowPolicy.BLOCK) {
+		    	if (!queue.offer(packet)) {
+		    		if (!fragment) return false;
+		    		
+		    		//The fragment has been taken, so its message waits
+		    		//for room on the switch port's drainer instead
+		    		port.returnToEgress(packet);
+		    		return true;
+		    	}
+		    	queued = true;
+		    } else {
+		    	queued = queue.add(packet);
+		    }
+		    
+		    if (queued) {
+		    	metrics.packetReceived(length, sent, now);
+		    	if (sim != null) sim.signal(queue);
+		    } else {
+		    	packet.release();
+		    }
 		    
     	} catch (InterruptedException e) {
-			e.printStackTrace();
-			
-		} finally {
-    		lock.unlock();
-    	}
+    		//Stop waiting for room, counting the packet as dropped if there
+    		//is still none, and leave the interrupt for the caller
+    		Thread.currentThread().interrupt();
+    		if (queue.addOrDrop(packet)) {
+    			metrics.packetReceived(length, sent, now);
+    		} else {
+    			packet.release();
+    		}
+		}
+    	return true;
     }
     
-    /*Used to extract data from packet using offset and size*/
-    private byte[] extractData(byte[] packet, int offset, int size) {
-    	byte[] data = new byte[size];
-    	for (int i = 0; i < size; i++) {
-    		data[i] = packet[i+offset];
-    	}
-    	return data;
+    /*Whether the number is a UDP port, which anything can be received on*/
+    private static boolean isPort(int port) {
+    	return port >= 0 && port < MAX_PORTS;
+    }
+    
+    /*Get the receive queue of a port, creating it on first use*/
+    private BoundedQueue<Packet> getReceiveQueue(int port_no) {
+    	BoundedQueue<Packet> queue = table.get(port_no);
+    	if (queue != null) return queue;
+    	
+    	BoundedQueue<Packet> created = new BoundedQueue<Packet>(receiveQueueCapacity, receivePolicy);
+    	queue = table.putIfAbsent(port_no, created);
+    	return queue == null ? created : queue;
     }
 
 }
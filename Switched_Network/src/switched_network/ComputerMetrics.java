@@ -0,0 +1,181 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Counts the traffic sent and received by one Computer, and records
+ * how long each received packet took from Computer.send() on the
+ * sending computer to delivery by Computer.sendToComputer().
+ * A long message sent as fragments counts as one packet received
+ * once it has been put back together and queued; its fragments are
+ * counted separately as they arrive.
+ *
+ */
+public class ComputerMetrics implements ComputerMetricsMBean, Metrics {
+
+    private final Computer computer;
+
+    private final AtomicLong packetsSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong packetsReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong packetsShaped = new AtomicLong();
+    private final AtomicLong shapingDelay = new AtomicLong();
+    private final AtomicLong fragmentsReceived = new AtomicLong();
+    private final AtomicLong fragmentBytesReceived = new AtomicLong();
+    private final AtomicLong messagesReassembled = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+
+    ComputerMetrics(Computer computer) {
+        this.computer = computer;
+    }
+
+    void packetSent(int length) {
+        packetsSent.incrementAndGet();
+        bytesSent.addAndGet(length);
+    }
+
+    /*
+     * Count a packet held back by a shaper for the given time.
+     */
+    void packetShaped(long delayNanos) {
+        packetsShaped.incrementAndGet();
+        shapingDelay.addAndGet(delayNanos);
+    }
+
+    /*
+     * Count a packet which has been queued for an application,
+     * recording its latency if it was time stamped when sent.
+     */
+    void packetReceived(int length, long sent, long now) {
+        packetsReceived.incrementAndGet();
+        bytesReceived.addAndGet(length);
+
+        if (sent != Packet.NO_TIMESTAMP) latency.record(now - sent);
+    }
+
+    /*
+     * Count a fragment which has arrived to be reassembled.
+     */
+    void fragmentReceived(int length) {
+        fragmentsReceived.incrementAndGet();
+        fragmentBytesReceived.addAndGet(length);
+    }
+
+    void messageReassembled() {
+        messagesReassembled.incrementAndGet();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getPacketsSent() {
+        return packetsSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getDroppedPackets() {
+        return computer.getDroppedPackets();
+    }
+
+    public long getShapedPackets() {
+        return packetsShaped.get();
+    }
+
+    /*
+     * Total time packets were held back by the shapers.
+     */
+    public long getShapingDelayNanos() {
+        return shapingDelay.get();
+    }
+
+    public long getFragmentsReceived() {
+        return fragmentsReceived.get();
+    }
+
+    public long getFragmentBytesReceived() {
+        return fragmentBytesReceived.get();
+    }
+
+    public long getReassembledMessages() {
+        return messagesReassembled.get();
+    }
+
+    public long getReassemblyFailures() {
+        return computer.getReassemblyFailures();
+    }
+
+    public long getOversizeMessages() {
+        return computer.getOversizeMessages();
+    }
+
+    public long getReassemblyPendingBytes() {
+        return computer.getReassemblyPendingBytes();
+    }
+
+    public long getLatencyCount() {
+        return latency.getCount();
+    }
+
+    public double getLatencyMeanNanos() {
+        return latency.getMean();
+    }
+
+    public long getLatencyP50Nanos() {
+        return latency.getPercentile(50);
+    }
+
+    public long getLatencyP99Nanos() {
+        return latency.getPercentile(99);
+    }
+
+    public long getLatencyP999Nanos() {
+        return latency.getPercentile(99.9);
+    }
+
+    public long getLatencyMaxNanos() {
+        return latency.getMax();
+    }
+
+    public void snapshot(String prefix, Map<String, Long> into) {
+        into.put(prefix + ".packetsSent", getPacketsSent());
+        into.put(prefix + ".bytesSent", getBytesSent());
+        into.put(prefix + ".packetsReceived", getPacketsReceived());
+        into.put(prefix + ".bytesReceived", getBytesReceived());
+        into.put(prefix + ".dropped", getDroppedPackets());
+        into.put(prefix + ".shaped", getShapedPackets());
+        into.put(prefix + ".shapingDelayNanos", getShapingDelayNanos());
+        into.put(prefix + ".fragmentsReceived", getFragmentsReceived());
+        into.put(prefix + ".fragmentBytesReceived", getFragmentBytesReceived());
+        into.put(prefix + ".reassembled", getReassembledMessages());
+        into.put(prefix + ".reassemblyFailures", getReassemblyFailures());
+        into.put(prefix + ".reassemblyPendingBytes", getReassemblyPendingBytes());
+        into.put(prefix + ".oversizeMessages", getOversizeMessages());
+        into.put(prefix + ".latency.count", getLatencyCount());
+        into.put(prefix + ".latency.meanNanos", (long) getLatencyMeanNanos());
+        into.put(prefix + ".latency.p50Nanos", getLatencyP50Nanos());
+        into.put(prefix + ".latency.p99Nanos", getLatencyP99Nanos());
+        into.put(prefix + ".latency.p999Nanos", getLatencyP999Nanos());
+        into.put(prefix + ".latency.maxNanos", getLatencyMaxNanos());
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+/**
+ *
+ * JMX view of the traffic sent and received by one Computer,
+ * including the latency from send() to delivery.
+ *
+ */
+public interface ComputerMetricsMBean {
+
+    public long getPacketsSent();
+
+    public long getBytesSent();
+
+    public long getPacketsReceived();
+
+    public long getBytesReceived();
+
+    public long getDroppedPackets();
+
+    public long getShapedPackets();
+
+    public long getShapingDelayNanos();
+
+    public long getFragmentsReceived();
+
+    public long getFragmentBytesReceived();
+
+    public long getReassembledMessages();
+
+    public long getReassemblyFailures();
+
+    public long getReassemblyPendingBytes();
+
+    public long getOversizeMessages();
+
+    public long getLatencyCount();
+
+    public double getLatencyMeanNanos();
+
+    public long getLatencyP50Nanos();
+
+    public long getLatencyP99Nanos();
+
+    public long getLatencyP999Nanos();
+
+    public long getLatencyMaxNanos();
+
+}
@@ -5,6 +5,8 @@
 package switched_network;
 
 import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -30,12 +32,96 @@ public interface ComputerOS {
     public void send(byte[] payload, InetAddress ip_address_to, int port_from, int port_to);
 
     /*
-     * This asks the operating system to check whether any incoming messages
-     * have been received on the given port on this machine.
+     * As above in the given traffic class (see Packet), which
+     * switches may serve ahead of or alongside other traffic.
+     */
+    public void send(byte[] payload, InetAddress ip_address_to, int port_from, int port_to, int trafficClass);
+
+    /*
+     * Send a batch of messages in one call, which is much cheaper
+     * per message than calling send() for each of them.
+     */
+    public void sendBatch(List<Message> messages);
+
+    /*
+     * This asks the operating system to wait until a message has
+     * been received on the given port on this machine.
      *
-     * If a message is pending then the 'payload' is returned as a byte array.
+     * The 'payload' is returned as a byte array.
      * (i.e. without any network header information)
+     *
+     * Returns null if the waiting thread is interrupted. Nothing can
+     * arrive on a port outside 0-65535, so for one of those this and
+     * the other receive methods return null (or -1) at once.
      */
     public byte[] recv(int port);
 
+    /*
+     * As recv(port) but waits at most the given time for a message.
+     *
+     * Returns null if no message arrives in time.
+     */
+    public byte[] recv(int port, long timeout, TimeUnit unit);
+
+    /*
+     * As recv(port) but copies the payload into the given buffer
+     * instead of allocating a new array. A payload which is too long
+     * for the buffer is truncated.
+     *
+     * Returns the full length of the payload, or -1 if the waiting
+     * thread is interrupted or the port is outside 0-65535.
+     */
+    public int recv(int port, byte[] buffer);
+
+    /*
+     * This asks the operating system to check whether any incoming messages
+     * have been received on the given port on this machine, without waiting.
+     *
+     * If a message is pending then the 'payload' is returned as a byte array,
+     * otherwise null is returned.
+     */
+    public byte[] poll(int port);
+
+    /*
+     * Wait until at least one message has been received on the given
+     * port and then return the payloads of up to maxMessages of the
+     * messages waiting, oldest first.
+     *
+     * Returns null if the waiting thread is interrupted.
+     */
+    public List<byte[]> recvBatch(int port, int maxMessages);
+
+    /*
+     * Choose whether the given port receives the fragments of messages
+     * too long for one packet as they arrive, rather than waiting for
+     * the whole message to be put back together.
+     */
+    public void setStreaming(int port, boolean streaming);
+
+    /*
+     * Wait for the next fragment on a streaming port, or the next whole
+     * message (as a single fragment) on any other port.
+     *
+     * Returns null if the waiting thread is interrupted.
+     */
+    public Fragment recvFragment(int port);
+
+    /*
+     * Receive messages sent to the multicast group (an address in
+     * 224.0.0.0/4) as well as those sent to this computer. Messages
+     * to the broadcast address 255.255.255.255 are always received.
+     */
+    public void joinGroup(InetAddress group);
+
+    /*
+     * Stop receiving messages sent to the multicast group.
+     */
+    public void leaveGroup(InetAddress group);
+
+    /*
+     * Pause the calling application for the given number of
+     * milliseconds, of virtual time if the computer is simulated.
+     */
+    public void sleep(long millis) throws InterruptedException;
+
 }
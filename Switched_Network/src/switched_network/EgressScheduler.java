@@ -0,0 +1,144 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *
+ * The egress queues of a SwitchPort, one per traffic class, and the
+ * choice of which packet to send next.
+ *
+ * Classes with strict priority are always served first, highest class
+ * first. The other classes share what is left by deficit round robin:
+ * each turn a class may send up to its weight times QUANTUM_BYTES
+ * (plus whatever it did not use last turn), so over time each gets
+ * bandwidth in proportion to its weight whatever its packet sizes.
+ *
+ * Like a LockFreeRing, any thread may offer() packets but only one
+ * thread at a time may poll(). A class's queue is only created when
+ * the first packet of that class arrives. The weights are copied when
+ * the scheduler is made and never change, so a port makes a new
+ * scheduler to change them.
+ *
+ */
+class EgressScheduler {
+
+    public final static int QUANTUM_BYTES = 1500;
+
+    // Weight of each class. 0 means strict priority.
+    private final int[] weights;
+    private final int capacity;
+    private final AtomicReferenceArray<LockFreeRing<Packet>> queues;
+
+    // Only used by the consumer.
+    private final int[] deficits = new int[Packet.TRAFFIC_CLASSES];
+    private int current = 0;
+    private boolean credited = false;
+
+
+    EgressScheduler(int[] weights, int capacity) {
+
+        this.weights = weights.clone();
+        this.capacity = capacity;
+        this.queues = new AtomicReferenceArray<LockFreeRing<Packet>>(Packet.TRAFFIC_CLASSES);
+
+    }
+
+    /*
+     * Queue the packet in its class, returning false if that
+     * class's queue is full.
+     */
+    boolean offer(Packet packet) {
+
+        int trafficClass = packet.getTrafficClass();
+        LockFreeRing<Packet> queue = queues.get(trafficClass);
+
+        if (queue == null) {
+            queues.compareAndSet(trafficClass, null,
+                    new LockFreeRing<Packet>(capacity, LockFreeRing.Producers.MULTIPLE));
+            queue = queues.get(trafficClass);
+        }
+        return queue.offer(packet);
+
+    }
+
+    /*
+     * The next packet to send, or null if none is waiting.
+     */
+    Packet poll() {
+
+        for (int c = Packet.TRAFFIC_CLASSES - 1; c >= 0; c--) {
+            if (weights[c] != 0) continue;
+
+            LockFreeRing<Packet> queue = queues.get(c);
+            Packet packet = queue == null ? null : queue.poll();
+            if (packet != null) return packet;
+        }
+
+        // Give up once a whole round finds nothing waiting.
+        int idle = 0;
+        while (idle <= Packet.TRAFFIC_CLASSES) {
+            int c = current;
+            LockFreeRing<Packet> queue = weights[c] == 0 ? null : queues.get(c);
+            Packet head = queue == null ? null : queue.peek();
+
+            if (head == null) {
+                //Credit is not saved up while a class has nothing to send
+                deficits[c] = 0;
+                nextClass();
+                idle++;
+                continue;
+            }
+            idle = 0;
+
+            if (!credited) {
+                deficits[c] += weights[c] * QUANTUM_BYTES;
+                credited = true;
+            }
+            if (head.getLength() <= deficits[c]) {
+                deficits[c] -= head.getLength();
+                return queue.poll();
+            }
+            nextClass();
+        }
+        return null;
+
+    }
+
+    /*
+     * Approximate number of packets waiting in all classes.
+     */
+    int size() {
+
+        int size = 0;
+        for (int c = 0; c < Packet.TRAFFIC_CLASSES; c++) {
+            LockFreeRing<Packet> queue = queues.get(c);
+            if (queue != null) size += queue.size();
+        }
+        return size;
+
+    }
+
+    /*
+     * Approximate number of packets waiting in one class.
+     */
+    int size(int trafficClass) {
+
+        LockFreeRing<Packet> queue = queues.get(trafficClass);
+        return queue == null ? 0 : queue.size();
+
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    private void nextClass() {
+        current = (current + 1) % Packet.TRAFFIC_CLASSES;
+        credited = false;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * Services the ingress queues of a group of ports of a NetworkSwitch,
+ * handing each incoming packet to the switch to be forwarded.
+ *
+ * A switch with several workers runs each of them on its own thread,
+ * so the ports are serviced in parallel.
+ *
+ * Each scan takes a batch of up to BATCH_SIZE packets from every port
+ * and forwards the batch in one go.
+ *
+ */
+class ForwardingWorker implements Runnable {
+
+    private final static long POLL_INTERVAL_MS = 100;
+
+    public final static int BATCH_SIZE = 32;
+
+    private final NetworkSwitch networkSwitch;
+    private final SwitchPort[] ports;
+
+    // Reused for every batch so that forwarding does not allocate.
+    private final List<Packet> batch = new ArrayList<Packet>(BATCH_SIZE);
+    private final int[] egress = new int[BATCH_SIZE];
+
+    // Set by the ports when a packet is waiting to be forwarded.
+    // Starts set so that packets queued before power up are picked up.
+    private final AtomicBoolean packetsPending = new AtomicBoolean(true);
+
+    // The lock is only taken to wake the worker when it is asleep.
+    private volatile boolean sleeping = false;
+    private Lock lock = new ReentrantLock();
+    private Condition packetArrived = lock.newCondition();
+
+
+    ForwardingWorker(NetworkSwitch networkSwitch, SwitchPort[] ports) {
+
+        this.networkSwitch = networkSwitch;
+        this.ports = ports;
+
+    }
+
+    // This thread is responsible for delivering any current incoming packets.
+    public void run() {
+
+        // Whether the last scan found a packet, in which case the port
+        // queues may still hold more and are scanned again without waiting.
+        boolean forwarded = false;
+
+        while (true) {
+            try {
+                if (networkSwitch.getForwardingMode() == NetworkSwitch.ForwardingMode.POLLING) {
+                    Thread.sleep(POLL_INTERVAL_MS);
+                } else if (!forwarded) {
+                    awaitPackets();
+                }
+            } catch (InterruptedException except) { }
+
+            // One timestamp is shared by all packets of this scan.
+            long now = System.nanoTime();
+            networkSwitch.maintainTable(now);
+
+            forwarded = false;
+            for (SwitchPort port: this.ports) {
+                //Check incoming packets only on connected ports
+                if (!port.isConnected()) continue;
+
+                //Get a batch of incoming packets
+                batch.clear();
+                port.drainIncomingPackets(batch, BATCH_SIZE);
+
+                //If no packet received, ignore this loop
+                if (batch.isEmpty()) continue;
+                forwarded = true;
+
+                networkSwitch.forward(batch, port.getNumber(), now, egress);
+            }
+        }
+    }
+
+    /*
+     * Wake the worker because one of its ports has a packet waiting.
+     */
+    void packetArrived() {
+        // Already due to scan its ports, which will find the packet.
+        if (packetsPending.get()) return;
+
+        packetsPending.set(true);
+        if (!sleeping) return;
+
+        lock.lock();
+        try {
+            packetArrived.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*Block until at least one port has signalled an incoming packet*/
+    private void awaitPackets() throws InterruptedException {
+        if (packetsPending.getAndSet(false)) return;
+
+        lock.lock();
+        try {
+            // Set before checking the flag again, so a port which sets the
+            // flag after the check is sure to see this and signal.
+            sleeping = true;
+            while (!packetsPending.getAndSet(false)) packetArrived.await();
+        } finally {
+            sleeping = false;
+            lock.unlock();
+        }
+    }
+
+}
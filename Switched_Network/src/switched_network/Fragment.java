@@ -0,0 +1,82 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.net.InetAddress;
+
+/**
+ *
+ * Part of a message as received by ComputerOS.recvFragment(): its
+ * payload together with where it came from and where it belongs in
+ * its message. A message short enough for one packet arrives as a
+ * single fragment holding all of it.
+ *
+ * The fragments of a message are sent in order along the same path,
+ * so they normally arrive in order, but any of them may be dropped
+ * on the way.
+ *
+ */
+public final class Fragment {
+
+    private final InetAddress source;
+    private final int sourcePort;
+    private final int messageId;
+    private final int offset;
+    private final int messageLength;
+    private final byte[] payload;
+
+
+    Fragment(Packet packet) {
+
+        this.source = Packet.toInetAddress(packet.getSourceAddress());
+        this.sourcePort = packet.getSourcePort();
+        this.messageId = packet.getMessageId();
+        this.offset = packet.getFragmentOffset();
+        this.messageLength = packet.getMessageLength();
+        this.payload = packet.copyPayload();
+
+    }
+
+    public InetAddress getSource() {
+        return source;
+    }
+
+    public int getSourcePort() {
+        return sourcePort;
+    }
+
+    /*
+     * The same for every fragment of a message from one source.
+     */
+    public int getMessageId() {
+        return messageId;
+    }
+
+    /*
+     * Where the payload starts within the message.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /*
+     * Length of the payload of the whole message.
+     */
+    public int getMessageLength() {
+        return messageLength;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /*
+     * Whether this fragment holds the end of its message.
+     */
+    public boolean isLast() {
+        return offset + payload.length >= messageLength;
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.Arrays;
+
+/**
+ *
+ * The multicast groups joined through each port of a NetworkSwitch.
+ *
+ * Computers join and leave groups rarely but every multicast packet
+ * looks its group up, so the table is an immutable snapshot which is
+ * copied on each change: lookups take no lock and do not allocate.
+ *
+ */
+class GroupTable {
+
+    private final static int[] NO_PORTS = new int[0];
+
+    // Sorted group addresses, and the sorted member ports of each.
+    private static class Snapshot {
+        final int[] groups;
+        final int[][] members;
+
+        Snapshot(int[] groups, int[][] members) {
+            this.groups = groups;
+            this.members = members;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(new int[0], new int[0][]);
+
+
+    /*
+     * The ports which have joined the group, none if it is unknown.
+     * The array must not be modified.
+     */
+    int[] getMembers(int group) {
+
+        Snapshot current = snapshot;
+        int i = Arrays.binarySearch(current.groups, group);
+        return i < 0 ? NO_PORTS : current.members[i];
+
+    }
+
+    synchronized void join(int group, int port) {
+
+        Snapshot current = snapshot;
+        int i = Arrays.binarySearch(current.groups, group);
+
+        if (i < 0) {
+            // A new group.
+            int at = -i - 1;
+            int n = current.groups.length;
+            int[] groups = new int[n + 1];
+            int[][] members = new int[n + 1][];
+
+            System.arraycopy(current.groups, 0, groups, 0, at);
+            System.arraycopy(current.members, 0, members, 0, at);
+            groups[at] = group;
+            members[at] = new int[] { port };
+            System.arraycopy(current.groups, at, groups, at + 1, n - at);
+            System.arraycopy(current.members, at, members, at + 1, n - at);
+
+            snapshot = new Snapshot(groups, members);
+            return;
+        }
+
+        int[] ports = current.members[i];
+        int j = Arrays.binarySearch(ports, port);
+        if (j >= 0) return;
+
+        int at = -j - 1;
+        int[] joined = new int[ports.length + 1];
+        System.arraycopy(ports, 0, joined, 0, at);
+        joined[at] = port;
+        System.arraycopy(ports, at, joined, at + 1, ports.length - at);
+
+        snapshot = new Snapshot(current.groups, replace(current.members, i, joined));
+
+    }
+
+    synchronized void leave(int group, int port) {
+
+        Snapshot current = snapshot;
+        int i = Arrays.binarySearch(current.groups, group);
+        if (i < 0) return;
+
+        int[] ports = current.members[i];
+        int j = Arrays.binarySearch(ports, port);
+        if (j < 0) return;
+
+        if (ports.length > 1) {
+            int[] left = new int[ports.length - 1];
+            System.arraycopy(ports, 0, left, 0, j);
+            System.arraycopy(ports, j + 1, left, j, left.length - j);
+
+            snapshot = new Snapshot(current.groups, replace(current.members, i, left));
+            return;
+        }
+
+        // The last member has gone, so the group goes too.
+        int n = current.groups.length;
+        int[] groups = new int[n - 1];
+        int[][] members = new int[n - 1][];
+
+        System.arraycopy(current.groups, 0, groups, 0, i);
+        System.arraycopy(current.members, 0, members, 0, i);
+        System.arraycopy(current.groups, i + 1, groups, i, n - 1 - i);
+        System.arraycopy(current.members, i + 1, members, i, n - 1 - i);
+
+        snapshot = new Snapshot(groups, members);
+
+    }
+
+    /*
+     * Number of groups with at least one member.
+     */
+    int size() {
+        return snapshot.groups.length;
+    }
+
+    private static int[][] replace(int[][] members, int i, int[] ports) {
+        int[][] copy = members.clone();
+        copy[i] = ports;
+        return copy;
+    }
+
+}
@@ -46,12 +46,13 @@ public class HelloWorldClient extends Application {
         // Print out application information using default application.
         super.run();
      
-        for (int i = 0; i < 100; i++) {
+        for (int i = 0; i < 100 && !isStopped(); i++) {
 
             try {
                 sleep(5000);
             } catch (InterruptedException except) {
-                // Ignore.
+                // Interrupted by stop().
+                break;
             }
 
             System.out.println("HelloWorldClient sending message to IP " + toServerIPAddress + " Port " + toPort + ": " + message);
@@ -0,0 +1,166 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * The link from a SwitchPort to whatever is connected to it, with a
+ * bandwidth, a propagation delay and an egress buffer.
+ *
+ * A packet takes its serialization delay (its length at the bandwidth)
+ * to send and then the propagation delay to arrive. Packets which
+ * arrive while the link is busy wait in the egress queue of their
+ * traffic class, and each time the link comes free the port's
+ * EgressScheduler chooses which goes next. Each class has a buffer
+ * of its own, so one class filling its buffer does not make the others
+ * drop, and a packet which would overflow its class's buffer is dropped.
+ *
+ * Each packet is delivered at its arrival time, and the next packet
+ * is sent when the link comes free, by the switch's link timer in
+ * real time or as events in a Simulation.
+ *
+ */
+class LinkModel {
+
+    // Packets smaller than this still take up a slot of their class's queue.
+    private final static int MIN_PACKET_BYTES = 64;
+
+    private final SwitchPort port;
+    private final long bitsPerSecond;
+    private final long propagationNanos;
+    private final int bufferBytes;
+    private final EgressScheduler queues;
+
+    // When the link finishes sending the packet currently being sent.
+    private long busyUntil;
+    private final int[] queuedBytes = new int[Packet.TRAFFIC_CLASSES];
+    // Whether sending the next queued packet is scheduled. Always set while any are queued.
+    private boolean sending = false;
+
+    private final Runnable sendNext = new Runnable() {
+        public void run() {
+            sendNext();
+        }
+    };
+
+
+    LinkModel(SwitchPort port, long bitsPerSecond, long propagationNanos, int bufferBytes, int[] classWeights) {
+
+        this.port = port;
+        this.bitsPerSecond = bitsPerSecond;
+        this.propagationNanos = propagationNanos;
+        this.bufferBytes = bufferBytes;
+        this.queues = new EgressScheduler(classWeights, Math.max(1, bufferBytes / MIN_PACKET_BYTES));
+        this.busyUntil = now();
+
+    }
+
+    long getBandwidth() {
+        return bitsPerSecond;
+    }
+
+    long getPropagationDelay(TimeUnit unit) {
+        return unit.convert(propagationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    int getBufferBytes() {
+        return bufferBytes;
+    }
+
+    /*
+     * Bytes waiting to be sent.
+     */
+    synchronized int getQueuedBytes() {
+        int total = 0;
+        for (int bytes : queuedBytes) total += bytes;
+        return total;
+    }
+
+    /*
+     * Send the packet, or queue it if the link is busy, returning false
+     * (and leaving the packet to the caller) if the egress buffer is full.
+     */
+    boolean transmit(Packet packet) {
+
+        int length = packet.getLength();
+        long now = now();
+
+        synchronized (this) {
+            if (!sending && busyUntil <= now) {
+                send(packet, now, now);
+                return true;
+            }
+
+            int trafficClass = packet.getTrafficClass();
+            if (queuedBytes[trafficClass] + length > bufferBytes || !queues.offer(packet)) return false;
+            queuedBytes[trafficClass] += length;
+
+            if (!sending) {
+                sending = true;
+                schedule(sendNext, busyUntil - now);
+            }
+        }
+        return true;
+
+    }
+
+    /*The link has come free, so start on the packet chosen by the scheduler*/
+    private synchronized void sendNext() {
+
+        Packet packet = queues.poll();
+        if (packet == null) {
+            sending = false;
+            return;
+        }
+        queuedBytes[packet.getTrafficClass()] -= packet.getLength();
+
+        // Starting from when the link came free, even if the timer ran
+        // late, keeps the packets going at the line rate.
+        long now = now();
+        send(packet, busyUntil, now);
+        schedule(sendNext, busyUntil - now);
+
+    }
+
+    /*Only called holding the lock*/
+    private void send(final Packet packet, long start, long now) {
+
+        busyUntil = start + serializationNanos(packet.getLength());
+
+        schedule(new Runnable() {
+            public void run() {
+                port.deliver(packet);
+            }
+        }, busyUntil + propagationNanos - now);
+
+    }
+
+    private void schedule(Runnable task, long delayNanos) {
+
+        long delay = Math.max(0, delayNanos);
+
+        Simulation simulation = port.getSwitch().getSimulation();
+        if (simulation != null) {
+            simulation.schedule(delay, TimeUnit.NANOSECONDS, task);
+        } else {
+            port.getSwitch().getLinkTimer().schedule(task, delay, TimeUnit.NANOSECONDS);
+        }
+
+    }
+
+    /*A bandwidth of zero sends instantly*/
+    private long serializationNanos(int length) {
+        if (bitsPerSecond <= 0) return 0;
+        return (long) Math.ceil(length * 8 * 1e9 / bitsPerSecond);
+    }
+
+    private long now() {
+        Simulation simulation = port.getSwitch().getSimulation();
+        return simulation == null ? System.nanoTime() : simulation.now();
+    }
+
+}
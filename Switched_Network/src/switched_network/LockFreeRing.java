@@ -0,0 +1,159 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *
+ * A fixed capacity first-in first-out ring buffer for handing
+ * elements from producer threads to a single consumer thread
+ * without taking any locks.
+ *
+ * With Producers.SINGLE only one thread may ever call offer(), and
+ * publishing an element is a plain ordered store. With
+ * Producers.MULTIPLE any number of threads may call offer() and they
+ * claim slots with a compare-and-set. In both cases only one thread
+ * may call poll().
+ *
+ * Elements must not be null.
+ *
+ */
+public class LockFreeRing<E> {
+
+    /*
+     * How many threads may add elements to the ring.
+     */
+    public enum Producers {
+        SINGLE,
+        MULTIPLE
+    }
+
+    private final AtomicReferenceArray<E> items;
+    private final int mask;
+    private final Producers producers;
+
+    // Next slot to be claimed by a producer.
+    private final AtomicLong tail = new AtomicLong();
+    // Next slot to be read by the consumer.
+    private final AtomicLong head = new AtomicLong();
+
+
+    /*
+     * The capacity is rounded up to a power of two.
+     */
+    public LockFreeRing(int capacity, Producers producers) {
+
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Ring capacity must be between 1 and 2^30: " + capacity);
+        }
+
+        int size = 1;
+        while (size < capacity) size <<= 1;
+
+        this.items = new AtomicReferenceArray<E>(size);
+        this.mask = size - 1;
+        this.producers = producers;
+
+    }
+
+    public int capacity() {
+        return items.length();
+    }
+
+    public Producers getProducers() {
+        return producers;
+    }
+
+    /*
+     * Add an element if there is room. Returns false if the ring is full.
+     */
+    public boolean offer(E item) {
+
+        if (item == null) throw new NullPointerException();
+
+        long slot;
+        if (producers == Producers.SINGLE) {
+            slot = tail.get();
+            if (slot - head.get() >= items.length()) return false;
+            tail.lazySet(slot + 1);
+
+        } else {
+            do {
+                slot = tail.get();
+                if (slot - head.get() >= items.length()) return false;
+            } while (!tail.compareAndSet(slot, slot + 1));
+        }
+
+        // Publishing the element is what makes it visible to the consumer.
+        items.lazySet((int) slot & mask, item);
+        return true;
+
+    }
+
+    /*
+     * Remove the oldest element, or return null if there is none.
+     * Only ever called by the consumer thread.
+     */
+    public E poll() {
+
+        long slot = head.get();
+        int index = (int) slot & mask;
+
+        // Empty, or a producer has claimed the slot but not yet published.
+        E item = items.get(index);
+        if (item == null) return null;
+
+        items.lazySet(index, null);
+        head.lazySet(slot + 1);
+        return item;
+
+    }
+
+    /*
+     * The oldest element without removing it, or null if there is none.
+     * Only ever called by the consumer thread.
+     */
+    public E peek() {
+        return items.get((int) head.get() & mask);
+    }
+
+    /*
+     * Remove up to max elements, oldest first, returning how many
+     * were removed. Only ever called by the consumer thread.
+     */
+    public int drainTo(Collection<? super E> into, int max) {
+
+        long slot = head.get();
+        int n = 0;
+
+        for (; n < max; n++) {
+            int index = (int) (slot + n) & mask;
+            E item = items.get(index);
+            if (item == null) break;
+
+            items.lazySet(index, null);
+            into.add(item);
+        }
+
+        // Free all the slots at once.
+        if (n > 0) head.lazySet(slot + n);
+        return n;
+
+    }
+
+    /*
+     * Approximate number of elements in the ring.
+     */
+    public int size() {
+
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, items.length()));
+
+    }
+
+}
@@ -4,8 +4,8 @@
 
 package switched_network;
 
+import java.io.File;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,6 +18,11 @@ import java.util.logging.Logger;
  * also work with different network structures ...
  * (so 10 computers each running 10 applications!)
  *
+ * A different network can be described in a topology file (see
+ * TopologyLoader) whose name is given as an argument. With the
+ * argument --simulate the network runs as a discrete event
+ * Simulation in virtual time, until the applications have finished.
+ *
  * @author K. Bryson.
  */
 public class Main {
@@ -27,40 +32,65 @@ public class Main {
 
         try {
 
-            // Create 2 computers named 'A' and 'B' with specific IP addresses.
-            Computer computerA = new Computer("A", InetAddress.getByName("1.2.3.4"));
-            Computer computerB = new Computer("B", InetAddress.getByName("1.2.3.7"));
-
-            // Create a network switch with 4 ports.
-            NetworkSwitch networkSwitch = new NetworkSwitch(4);
-
-            // This connects network card of ComputerA
-            // to Port 0 on the Network Switch.
-            SwitchPort port0 = networkSwitch.getPort(0);
-            port0.connectNetworkCard((NetworkCard) computerA);
-            computerA.connectPort(port0);
-            
-            // This connects network card of ComputerB
-            // to Port 1 on the Network Switch.
-            SwitchPort port1 = networkSwitch.getPort(1);
-            port1.connectNetworkCard((NetworkCard) computerB);
-            computerB.connectPort(port1);
-
-            // Start the switch operating.
-            // Essentially the switch starts forwarding network packets.
-            networkSwitch.powerUp();
-
-            // Create a 'ParrotServer' running on Computer B listening to port number 9999.
-            Application parrotServer = new ParrotServer((ComputerOS) computerB, 9999);
-            parrotServer.start();
-
-            // Create a 'HelloWorldClient' running on Computer A, sending out message to Computer B, port 9999.
-            Application helloWorldClient = new HelloWorldClient((ComputerOS) computerA, InetAddress.getByName("1.2.3.7"), 9999);
-            helloWorldClient.start();
-
-        } catch (UnknownHostException ex) {
+            boolean simulate = false;
+            String topology = null;
+            for (String arg : args) {
+                if (arg.equals("--simulate")) simulate = true;
+                else topology = arg;
+            }
+
+            // A topology file can be given instead of the network below.
+            NetworkBuilder builder = topology != null
+                                   ? new TopologyLoader().load(new File(topology))
+                                   : defaultNetwork();
+
+            Simulation simulation = simulate ? new Simulation() : null;
+            builder.setSimulation(simulation);
+
+            // Create and connect the switches, computers and applications.
+            Network network = builder.build();
+
+            // Start the switches operating.
+            // Essentially the switches start forwarding network packets.
+            network.powerUp();
+
+            // Start the applications running on each computer.
+            network.startApplications();
+
+            // Run the simulation until nothing more can happen.
+            if (simulation != null) {
+                simulation.run();
+                System.out.println("Simulated " + simulation.now() / 1e9 + " seconds");
+            }
+
+        } catch (Exception ex) {
             Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
         }
 
     }
+
+    /*
+     * 2 computers named 'A' and 'B' with specific IP addresses, connected
+     * to ports 0 and 1 of a network switch with 4 ports. A 'ParrotServer'
+     * on Computer B listens to port 9999 and a 'HelloWorldClient' on
+     * Computer A sends messages to it.
+     */
+    private static NetworkBuilder defaultNetwork() {
+
+        return new NetworkBuilder()
+            .addSwitch("switch", 4)
+            .addHost("A", "1.2.3.4", "switch", 0)
+            .addHost("B", "1.2.3.7", "switch", 1)
+            .addApplication("B", new ApplicationFactory() {
+                public Application create(ComputerOS computerOS, String[] args) {
+                    return new ParrotServer(computerOS, 9999);
+                }
+            })
+            .addApplication("A", new ApplicationFactory() {
+                public Application create(ComputerOS computerOS, String[] args) throws Exception {
+                    return new HelloWorldClient(computerOS, InetAddress.getByName("1.2.3.7"), 9999);
+                }
+            });
+
+    }
 }
@@ -0,0 +1,61 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.net.InetAddress;
+
+/**
+ *
+ * A message for ComputerOS.sendBatch(): a payload together with
+ * the address and ports it should be sent between, and optionally
+ * its traffic class.
+ *
+ */
+public final class Message {
+
+    private final byte[] payload;
+    private final InetAddress ipAddressTo;
+    private final int portFrom;
+    private final int portTo;
+    private final int trafficClass;
+
+
+    public Message(byte[] payload, InetAddress ipAddressTo, int portFrom, int portTo) {
+        this(payload, ipAddressTo, portFrom, portTo, Packet.DEFAULT_TRAFFIC_CLASS);
+    }
+
+    public Message(byte[] payload, InetAddress ipAddressTo, int portFrom, int portTo, int trafficClass) {
+
+        Packet.checkTrafficClass(trafficClass);
+
+        this.payload = payload;
+        this.ipAddressTo = ipAddressTo;
+        this.portFrom = portFrom;
+        this.portTo = portTo;
+        this.trafficClass = trafficClass;
+
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public InetAddress getIPAddressTo() {
+        return ipAddressTo;
+    }
+
+    public int getPortFrom() {
+        return portFrom;
+    }
+
+    public int getPortTo() {
+        return portTo;
+    }
+
+    public int getTrafficClass() {
+        return trafficClass;
+    }
+
+}
@@ -0,0 +1,21 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.Map;
+
+/**
+ *
+ * Something which can add its current values to a MetricsRegistry snapshot.
+ *
+ */
+interface Metrics {
+
+    /*
+     * Add every value, named prefix + "." + value name, to the snapshot.
+     */
+    void snapshot(String prefix, Map<String, Long> into);
+
+}
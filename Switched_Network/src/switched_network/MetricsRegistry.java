@@ -0,0 +1,143 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ *
+ * Collects the metrics of the switches and computers of a network so
+ * that they can be read together, either programmatically through
+ * snapshot() or from a JMX console such as jconsole once
+ * registerMBeans() has been called.
+ *
+ * Switches are named by the caller; computers by their hostname.
+ * In a snapshot each value is named after its switch, port or
+ * computer, e.g. "switch1.port3.packetsIn" or "host2.latency.p99Nanos".
+ *
+ */
+public class MetricsRegistry {
+
+    public final static String JMX_DOMAIN = "switched_network";
+
+    private static final MetricsRegistry defaultRegistry = new MetricsRegistry();
+
+    // Keyed by snapshot prefix, in the order they were added.
+    private final Map<String, Metrics> metrics = new LinkedHashMap<String, Metrics>();
+    private final Map<String, ObjectName> names = new LinkedHashMap<String, ObjectName>();
+
+    private MBeanServer server = null;
+
+
+    public static MetricsRegistry getDefault() {
+        return defaultRegistry;
+    }
+
+    /*
+     * Add the switch and each of its ports.
+     */
+    public synchronized void register(String name, NetworkSwitch networkSwitch) {
+
+        add(name, networkSwitch.getMetrics(), "type=NetworkSwitch,name=" + ObjectName.quote(name));
+
+        for (int i = 0; i < networkSwitch.getNumberPorts(); i++) {
+            add(name + ".port" + i, networkSwitch.getPort(i).getMetrics(),
+                "type=SwitchPort,switch=" + ObjectName.quote(name) + ",port=" + i);
+        }
+
+    }
+
+    public synchronized void register(Computer computer) {
+
+        String name = computer.getHostname();
+        add(name, computer.getMetrics(), "type=Computer,name=" + ObjectName.quote(name));
+
+    }
+
+    /*
+     * The current value of every metric, keyed by name.
+     * Values are read one at a time, so they are not an atomic
+     * picture of the whole network.
+     */
+    public synchronized SortedMap<String, Long> snapshot() {
+
+        SortedMap<String, Long> snapshot = new TreeMap<String, Long>();
+        for (Map.Entry<String, Metrics> entry : metrics.entrySet()) {
+            entry.getValue().snapshot(entry.getKey(), snapshot);
+        }
+        return snapshot;
+
+    }
+
+    /*
+     * Register the metrics with the platform MBean server,
+     * including any added later.
+     */
+    public void registerMBeans() throws JMException {
+        registerMBeans(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public synchronized void registerMBeans(MBeanServer server) throws JMException {
+
+        this.server = server;
+        for (Map.Entry<String, ObjectName> entry : names.entrySet()) {
+            registerMBean(metrics.get(entry.getKey()), entry.getValue());
+        }
+
+    }
+
+    /*
+     * Remove the metrics from the MBean server, if registered.
+     */
+    public synchronized void unregisterMBeans() throws JMException {
+
+        if (server == null) return;
+
+        for (ObjectName name : names.values()) {
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        }
+        server = null;
+
+    }
+
+    private void add(String prefix, Metrics source, String properties) {
+
+        if (metrics.containsKey(prefix)) {
+            throw new IllegalArgumentException("Metrics already registered under the name " + prefix);
+        }
+
+        ObjectName name;
+        try {
+            name = new ObjectName(JMX_DOMAIN + ":" + properties);
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Cannot use " + prefix + " as a metrics name", e);
+        }
+
+        metrics.put(prefix, source);
+        names.put(prefix, name);
+
+        if (server != null) {
+            try {
+                registerMBean(source, name);
+            } catch (JMException e) {
+                throw new IllegalStateException("Could not register " + name, e);
+            }
+        }
+
+    }
+
+    private void registerMBean(Metrics source, ObjectName name) throws JMException {
+        if (!server.isRegistered(name)) server.registerMBean(source, name);
+    }
+
+}
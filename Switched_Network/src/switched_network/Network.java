@@ -0,0 +1,148 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * The switches, computers, trunks and applications of a network
+ * built by a NetworkBuilder. Nothing is running until powerUp()
+ * and startApplications() are called.
+ *
+ */
+public class Network {
+
+    private final Map<String, NetworkSwitch> switches;
+    private final Map<String, Computer> computers;
+    private final List<TrunkLink> trunks;
+    private final List<Application> applications;
+    private final Simulation simulation;
+    private final ParallelSimulation parallelSimulation;
+
+
+    Network(Map<String, NetworkSwitch> switches, Map<String, Computer> computers,
+            List<TrunkLink> trunks, List<Application> applications,
+            Simulation simulation, ParallelSimulation parallelSimulation) {
+
+        this.switches = Collections.unmodifiableMap(switches);
+        this.computers = Collections.unmodifiableMap(computers);
+        this.trunks = Collections.unmodifiableList(trunks);
+        this.applications = Collections.unmodifiableList(applications);
+        this.simulation = simulation;
+        this.parallelSimulation = parallelSimulation;
+
+    }
+
+    public NetworkSwitch getSwitch(String name) {
+        NetworkSwitch networkSwitch = switches.get(name);
+        if (networkSwitch == null) throw new IllegalArgumentException("No switch named " + name);
+        return networkSwitch;
+    }
+
+    public Computer getComputer(String hostname) {
+        Computer computer = computers.get(hostname);
+        if (computer == null) throw new IllegalArgumentException("No computer named " + hostname);
+        return computer;
+    }
+
+    /*
+     * In the order they were added to the builder.
+     */
+    public Collection<NetworkSwitch> getSwitches() {
+        return switches.values();
+    }
+
+    public Collection<Computer> getComputers() {
+        return computers.values();
+    }
+
+    public List<TrunkLink> getTrunks() {
+        return trunks;
+    }
+
+    public List<Application> getApplications() {
+        return applications;
+    }
+
+    /*
+     * The simulation the network runs in, or null if it runs in real time.
+     */
+    public Simulation getSimulation() {
+        return simulation;
+    }
+
+    /*
+     * The parallel simulation the network is partitioned across, if any.
+     */
+    public ParallelSimulation getParallelSimulation() {
+        return parallelSimulation;
+    }
+
+    /*
+     * Start every switch forwarding.
+     */
+    public void powerUp() throws UnknownHostException {
+        for (NetworkSwitch networkSwitch : switches.values()) {
+            networkSwitch.powerUp();
+        }
+    }
+
+    /*
+     * Start the applications with the default launcher, or as
+     * processes of the simulation (or partition) their computer
+     * runs in if the network is simulated.
+     */
+    public void startApplications() {
+        for (Application application : applications) {
+            Simulation partition = ((Computer) application.getComputerOS()).getSimulation();
+            application.start(partition == null ? ApplicationLauncher.getDefault() : partition.getLauncher());
+        }
+    }
+
+    public void startApplications(ApplicationLauncher launcher) {
+        for (Application application : applications) {
+            application.start(launcher);
+        }
+    }
+
+    /*
+     * Ask every application to stop, without waiting for them.
+     */
+    public void stopApplications() {
+        for (Application application : applications) {
+            application.stop();
+        }
+    }
+
+    /*
+     * Add every switch (under its name) and computer to the registry.
+     */
+    public void registerMetrics(MetricsRegistry registry) {
+        for (Map.Entry<String, NetworkSwitch> entry : switches.entrySet()) {
+            registry.register(entry.getKey(), entry.getValue());
+        }
+        for (Computer computer : computers.values()) {
+            registry.register(computer);
+        }
+    }
+
+    /*
+     * The trunks which are not blocked, e.g. after SpanningTree has run.
+     */
+    public List<TrunkLink> getActiveTrunks() {
+        List<TrunkLink> active = new ArrayList<TrunkLink>();
+        for (TrunkLink trunk : trunks) {
+            if (!trunk.isBlocked()) active.add(trunk);
+        }
+        return active;
+    }
+
+}
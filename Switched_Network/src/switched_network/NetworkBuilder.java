@@ -0,0 +1,588 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Describes a network of switches, computers, trunks and applications
+ * and then builds it, so that large networks do not have to be wired
+ * up by hand:
+ *
+ *   Network network = new NetworkBuilder()
+ *       .addSwitch("core", 8)
+ *       .addSwitch("rack1", 48)
+ *       .addTrunk("rack1", "core")
+ *       .addHosts("r1-", "10.0.1.1", 40, "rack1")
+ *       .addApplication("r1-0", parrotFactory, "9999")
+ *       .build();
+ *
+ * Hosts and trunks take the next free port of their switch unless
+ * a port is given. Every name, address and port is checked when the
+ * network is built, and any mistake is reported with an
+ * IllegalArgumentException before anything is connected.
+ *
+ * The computers attached to different switches are created and
+ * connected in parallel. See TopologyLoader for the same description
+ * read from a text file.
+ *
+ */
+public class NetworkBuilder {
+
+    private final Map<String, SwitchSpec> switches = new LinkedHashMap<String, SwitchSpec>();
+    private final Map<String, HostSpec> hosts = new LinkedHashMap<String, HostSpec>();
+    private final List<TrunkSpec> trunks = new ArrayList<TrunkSpec>();
+    private final List<ApplicationSpec> applications = new ArrayList<ApplicationSpec>();
+
+    private boolean spanningTree = false;
+    private boolean daemon = false;
+    private Simulation simulation = null;
+    private ParallelSimulation parallelSimulation = null;
+    private long trunkLatencyNanos = 0;
+
+    // Links of the switch ports, bandwidth 0 and delay 0 being instant.
+    private long hostBandwidth = 0;
+    private long hostDelayNanos = 0;
+    private long trunkBandwidth = 0;
+    private long trunkDelayNanos = 0;
+
+    // Token buckets of every host, a rate of 0 being unlimited.
+    private long shaperRate = 0;
+    private int shaperBurst = 0;
+    private long policerRate = 0;
+    private int policerBurst = 0;
+    private int hostMtu = Computer.DEFAULT_MTU;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    // Egress scheduling of every switch port, 0 being strict priority.
+    private final int[] classWeights = new int[Packet.TRAFFIC_CLASSES];
+
+
+    public NetworkBuilder() {
+        Arrays.fill(classWeights, SwitchPort.DEFAULT_CLASS_WEIGHT);
+    }
+
+    public NetworkBuilder addSwitch(String name, int ports) {
+        return addSwitch(name, ports, 1);
+    }
+
+    /*
+     * Add a switch with the given number of ports and forwarding workers.
+     */
+    public NetworkBuilder addSwitch(String name, int ports, int workers) {
+
+        if (switches.containsKey(name)) throw new IllegalArgumentException("Duplicate switch " + name);
+        if (ports < 1) throw new IllegalArgumentException("Switch " + name + " needs at least one port");
+
+        switches.put(name, new SwitchSpec(name, switches.size(), ports, workers));
+        return this;
+
+    }
+
+    /*
+     * Set the bridge priority used to choose the spanning tree root.
+     */
+    public NetworkBuilder setBridgePriority(String switchName, int priority) {
+        getSwitchSpec(switchName).priority = priority;
+        return this;
+    }
+
+    /*
+     * Add a computer on the next free port of the switch. Its address
+     * may not be the broadcast address or a multicast group (224.0.0.0/4).
+     */
+    public NetworkBuilder addHost(String hostname, String address, String switchName) {
+        return addHost(hostname, address, switchName, -1);
+    }
+
+    public NetworkBuilder addHost(String hostname, String address, String switchName, int port) {
+        return addHost(hostname, parseAddress(address), switchName, port);
+    }
+
+    /*
+     * Add count computers named prefix0, prefix1, ... with consecutive
+     * addresses starting at the given one, on the next free ports of
+     * the switch. None of the addresses may be broadcast or multicast.
+     */
+    public NetworkBuilder addHosts(String prefix, String firstAddress, int count, String switchName) {
+
+        int address = parseAddress(firstAddress);
+        if ((address & 0xFFFFFFFFL) + count - 1 > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException("Addresses of hosts " + prefix + "* run past 255.255.255.255");
+        }
+        for (int i = 0; i < count; i++) {
+            addHost(prefix + i, address + i, switchName, -1);
+        }
+        return this;
+
+    }
+
+    private NetworkBuilder addHost(String hostname, int address, String switchName, int port) {
+
+        if (hosts.containsKey(hostname)) throw new IllegalArgumentException("Duplicate host " + hostname);
+        if (Packet.isBroadcast(address) || Packet.isMulticast(address)) {
+            throw new IllegalArgumentException("Host " + hostname + " cannot have the broadcast or multicast address "
+                    + Packet.toInetAddress(address).getHostAddress());
+        }
+        getSwitchSpec(switchName);
+
+        hosts.put(hostname, new HostSpec(hostname, address, switchName, port));
+        return this;
+
+    }
+
+    /*
+     * Connect the next free ports of two switches.
+     */
+    public NetworkBuilder addTrunk(String switchA, String switchB) {
+        return addTrunk(switchA, -1, switchB, -1);
+    }
+
+    public NetworkBuilder addTrunk(String switchA, int portA, String switchB, int portB) {
+
+        getSwitchSpec(switchA);
+        getSwitchSpec(switchB);
+
+        trunks.add(new TrunkSpec(switchA, portA, switchB, portB));
+        return this;
+
+    }
+
+    /*
+     * Run an application made by the factory on the host. A host name
+     * ending in '*' adds the application to every host whose name starts
+     * with the rest of it.
+     */
+    public NetworkBuilder addApplication(String hostname, ApplicationFactory factory, String... args) {
+
+        applications.add(new ApplicationSpec(hostname, factory, args));
+        return this;
+
+    }
+
+    /*
+     * Block trunks with SpanningTree so that loops are broken.
+     */
+    public NetworkBuilder setSpanningTree(boolean spanningTree) {
+        this.spanningTree = spanningTree;
+        return this;
+    }
+
+    /*
+     * Build SIMULATED switches which run as events of the simulation,
+     * or real threaded switches if null.
+     */
+    public NetworkBuilder setSimulation(Simulation simulation) {
+        this.simulation = simulation;
+        return this;
+    }
+
+    /*
+     * Build SIMULATED switches spread over the partitions of the
+     * parallel simulation, switch i (in the order added) going to
+     * partition i % partitions along with its computers. Trunks
+     * between partitions need a latency of at least the lookahead.
+     */
+    public NetworkBuilder setParallelSimulation(ParallelSimulation parallelSimulation) {
+        this.parallelSimulation = parallelSimulation;
+        return this;
+    }
+
+    /*
+     * Time a packet takes to cross each trunk in a simulation.
+     */
+    public NetworkBuilder setTrunkLatency(long latency, TimeUnit unit) {
+        this.trunkLatencyNanos = unit.toNanos(latency);
+        return this;
+    }
+
+    /*
+     * Give the switch port of every host a link of the given bandwidth
+     * (bits per second) and propagation delay. See LinkModel.
+     */
+    public NetworkBuilder setHostLink(long bitsPerSecond, long propagationDelay, TimeUnit unit) {
+        this.hostBandwidth = bitsPerSecond;
+        this.hostDelayNanos = unit.toNanos(propagationDelay);
+        return this;
+    }
+
+    /*
+     * Give both ports of every trunk a link of the given bandwidth
+     * and propagation delay.
+     */
+    public NetworkBuilder setTrunkLink(long bitsPerSecond, long propagationDelay, TimeUnit unit) {
+        this.trunkBandwidth = bitsPerSecond;
+        this.trunkDelayNanos = unit.toNanos(propagationDelay);
+        return this;
+    }
+
+    /*
+     * Shape what every host sends to the rate in bits per second,
+     * with bursts of up to the given bytes. See TokenBucket.
+     */
+    public NetworkBuilder setHostShaper(long bitsPerSecond, int burstBytes) {
+        this.shaperRate = bitsPerSecond;
+        this.shaperBurst = burstBytes;
+        return this;
+    }
+
+    /*
+     * Set the largest packet every host sends. See Computer.setMtu().
+     */
+    public NetworkBuilder setMtu(int mtu) {
+        if (mtu < Computer.MIN_MTU || mtu > PacketPool.MAX_CAPACITY) {
+            throw new IllegalArgumentException("MTU must be between " + Computer.MIN_MTU
+                    + " and " + PacketPool.MAX_CAPACITY + ": " + mtu);
+        }
+        this.hostMtu = mtu;
+        return this;
+    }
+
+    /*
+     * Police what arrives at the switch port of every host.
+     */
+    public NetworkBuilder setHostPolicer(long bitsPerSecond, int burstBytes) {
+        this.policerRate = bitsPerSecond;
+        this.policerBurst = burstBytes;
+        return this;
+    }
+
+    /*
+     * Give a traffic class strict priority on every switch port.
+     */
+    public NetworkBuilder setStrictPriority(int trafficClass) {
+        Packet.checkTrafficClass(trafficClass);
+        classWeights[trafficClass] = 0;
+        return this;
+    }
+
+    /*
+     * Set the weight of a traffic class on every switch port.
+     */
+    public NetworkBuilder setClassWeight(int trafficClass, int weight) {
+        Packet.checkTrafficClass(trafficClass);
+        if (weight < 1 || weight > SwitchPort.MAX_CLASS_WEIGHT) {
+            throw new IllegalArgumentException("Class weight must be between 1 and "
+                                               + SwitchPort.MAX_CLASS_WEIGHT + ": " + weight);
+        }
+        classWeights[trafficClass] = weight;
+        return this;
+    }
+
+    /*
+     * Whether the switch threads are daemon threads.
+     */
+    public NetworkBuilder setDaemon(boolean daemon) {
+        this.daemon = daemon;
+        return this;
+    }
+
+    /*
+     * Number of threads used to create the computers.
+     */
+    public NetworkBuilder setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        this.parallelism = parallelism;
+        return this;
+    }
+
+
+    /*
+     * Check the description, then create and connect everything.
+     * The switches are not powered up and the applications are
+     * not started.
+     */
+    public Network build() throws Exception {
+
+        // Assign ports first so that wiring mistakes are found before anything is built.
+        Map<String, boolean[]> used = new HashMap<String, boolean[]>();
+        for (SwitchSpec spec : switches.values()) used.put(spec.name, new boolean[spec.ports]);
+
+        Map<Integer, String> addresses = new HashMap<Integer, String>();
+        final Map<String, List<HostSpec>> hostsBySwitch = new HashMap<String, List<HostSpec>>();
+
+        for (HostSpec host : hosts.values()) {
+            String other = addresses.put(host.address, host.name);
+            if (other != null) {
+                throw new IllegalArgumentException("Hosts " + other + " and " + host.name + " have the same address "
+                                                   + Packet.toInetAddress(host.address).getHostAddress());
+            }
+            host.assigned = assignPort(used, host.switchName, host.port, "host " + host.name);
+
+            List<HostSpec> group = hostsBySwitch.get(host.switchName);
+            if (group == null) {
+                group = new ArrayList<HostSpec>();
+                hostsBySwitch.put(host.switchName, group);
+            }
+            group.add(host);
+        }
+
+        for (TrunkSpec trunk : trunks) {
+            String description = "trunk " + trunk.switchA + "-" + trunk.switchB;
+            trunk.assignedA = assignPort(used, trunk.switchA, trunk.portA, description);
+            trunk.assignedB = assignPort(used, trunk.switchB, trunk.portB, description);
+        }
+
+        List<ApplicationSpec> resolved = resolveApplications();
+
+        if (simulation != null && parallelSimulation != null) {
+            throw new IllegalArgumentException("A network cannot be in a simulation and a parallel simulation");
+        }
+        if (parallelSimulation != null && trunkLatencyNanos < parallelSimulation.getLookahead()) {
+            for (TrunkSpec trunk : trunks) {
+                if (partitionOf(trunk.switchA) != partitionOf(trunk.switchB)) {
+                    throw new IllegalArgumentException("Trunk " + trunk.switchA + "-" + trunk.switchB + " joins two partitions"
+                                                       + " so its latency must be at least the lookahead");
+                }
+            }
+        }
+
+        // Switches
+        final Map<String, NetworkSwitch> builtSwitches = new LinkedHashMap<String, NetworkSwitch>();
+        for (SwitchSpec spec : switches.values()) {
+            Simulation partition = parallelSimulation == null ? simulation
+                                 : parallelSimulation.getPartition(partitionOf(spec.name));
+            NetworkSwitch networkSwitch = partition == null
+                                        ? new NetworkSwitch(spec.ports)
+                                        : new NetworkSwitch(spec.ports, partition);
+            networkSwitch.setName(spec.name);
+            networkSwitch.setDaemon(daemon);
+            networkSwitch.setWorkerCount(spec.workers);
+            networkSwitch.setBridgePriority(spec.priority);
+            // Numbered in the order described, so the spanning tree
+            // does not depend on what else the program has created.
+            networkSwitch.setBridgeId(spec.index + 1);
+            for (int c = 0; c < classWeights.length; c++) {
+                if (classWeights[c] == 0) {
+                    networkSwitch.setStrictPriority(c);
+                } else {
+                    networkSwitch.setClassWeight(c, classWeights[c]);
+                }
+            }
+            builtSwitches.put(spec.name, networkSwitch);
+        }
+
+        // Computers, one task per switch so no two tasks share a switch.
+        final Map<String, Computer> builtComputers = new HashMap<String, Computer>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, hostsBySwitch.size())));
+        try {
+            List<Future<List<Computer>>> results = new ArrayList<Future<List<Computer>>>();
+            for (final Map.Entry<String, List<HostSpec>> entry : hostsBySwitch.entrySet()) {
+                results.add(executor.submit(new Callable<List<Computer>>() {
+                    public List<Computer> call() {
+                        return connectHosts(builtSwitches.get(entry.getKey()), entry.getValue());
+                    }
+                }));
+            }
+            for (Future<List<Computer>> result : results) {
+                for (Computer computer : result.get()) builtComputers.put(computer.getHostname(), computer);
+            }
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        } finally {
+            executor.shutdown();
+        }
+
+        // Keep the order the hosts were described in.
+        Map<String, Computer> computers = new LinkedHashMap<String, Computer>();
+        for (String hostname : hosts.keySet()) computers.put(hostname, builtComputers.get(hostname));
+
+        // Trunks
+        List<TrunkLink> links = new ArrayList<TrunkLink>();
+        for (TrunkSpec trunk : trunks) {
+            TrunkLink link = new TrunkLink(builtSwitches.get(trunk.switchA).getPort(trunk.assignedA),
+                                           builtSwitches.get(trunk.switchB).getPort(trunk.assignedB));
+            link.setLatency(trunkLatencyNanos, TimeUnit.NANOSECONDS);
+            link.getPortA().configureLink(trunkBandwidth, trunkDelayNanos, TimeUnit.NANOSECONDS);
+            link.getPortB().configureLink(trunkBandwidth, trunkDelayNanos, TimeUnit.NANOSECONDS);
+            links.add(link);
+        }
+        if (spanningTree) SpanningTree.configure(links);
+
+        // Applications
+        List<Application> apps = new ArrayList<Application>();
+        for (ApplicationSpec spec : resolved) {
+            apps.add(spec.factory.create(computers.get(spec.hostname), spec.args));
+        }
+
+        return new Network(builtSwitches, computers, links, apps, simulation, parallelSimulation);
+
+    }
+
+    /*Create the computers of one switch and connect each to its port*/
+    private List<Computer> connectHosts(NetworkSwitch networkSwitch, List<HostSpec> group) {
+
+        List<Computer> created = new ArrayList<Computer>(group.size());
+        for (HostSpec host : group) {
+            Computer computer = new Computer(host.name, Packet.toInetAddress(host.address));
+            SwitchPort port = networkSwitch.getPort(host.assigned);
+            port.configureLink(hostBandwidth, hostDelayNanos, TimeUnit.NANOSECONDS);
+            port.setPolicer(policerRate, policerBurst);
+            computer.setShaper(shaperRate, shaperBurst);
+            computer.setMtu(hostMtu);
+            port.connectNetworkCard(computer);
+            computer.connectPort(port);
+            created.add(computer);
+        }
+        return created;
+
+    }
+
+    /*Check an explicit port, or find the lowest free one*/
+    private static int assignPort(Map<String, boolean[]> used, String switchName, int port, String description) {
+
+        boolean[] ports = used.get(switchName);
+
+        if (port < 0) {
+            port = 0;
+            while (port < ports.length && ports[port]) port++;
+            if (port == ports.length) {
+                throw new IllegalArgumentException("Switch " + switchName + " has no free port for " + description);
+            }
+        } else if (port >= ports.length) {
+            throw new IllegalArgumentException("Switch " + switchName + " has no port " + port + " for " + description);
+        } else if (ports[port]) {
+            throw new IllegalArgumentException("Port " + port + " of switch " + switchName
+                                               + " is used twice, the second time by " + description);
+        }
+
+        ports[port] = true;
+        return port;
+
+    }
+
+    /*Expand host name patterns and check every host exists*/
+    private List<ApplicationSpec> resolveApplications() {
+
+        List<ApplicationSpec> resolved = new ArrayList<ApplicationSpec>();
+        for (ApplicationSpec spec : applications) {
+            if (spec.hostname.endsWith("*")) {
+                String prefix = spec.hostname.substring(0, spec.hostname.length() - 1);
+                for (String hostname : hosts.keySet()) {
+                    if (hostname.startsWith(prefix)) resolved.add(new ApplicationSpec(hostname, spec.factory, spec.args));
+                }
+            } else if (hosts.containsKey(spec.hostname)) {
+                resolved.add(spec);
+            } else {
+                throw new IllegalArgumentException("Application on unknown host " + spec.hostname);
+            }
+        }
+        return resolved;
+
+    }
+
+    /*The partition of a parallel simulation the switch goes in*/
+    private int partitionOf(String switchName) {
+        return switches.get(switchName).index % parallelSimulation.getPartitionCount();
+    }
+
+    private SwitchSpec getSwitchSpec(String name) {
+        SwitchSpec spec = switches.get(name);
+        if (spec == null) throw new IllegalArgumentException("Unknown switch " + name);
+        return spec;
+    }
+
+    private static Exception rethrow(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        return e;
+    }
+
+    /*
+     * Parse a dotted IPv4 address without any name lookup.
+     */
+    static int parseAddress(String address) {
+
+        String[] parts = address.split("\\.", -1);
+        if (parts.length != 4) throw new IllegalArgumentException("Not an IPv4 address: " + address);
+
+        int value = 0;
+        for (String part : parts) {
+            int octet;
+            try {
+                octet = Integer.parseInt(part);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not an IPv4 address: " + address);
+            }
+            if (octet < 0 || octet > 255) throw new IllegalArgumentException("Not an IPv4 address: " + address);
+            value = value << 8 | octet;
+        }
+        return value;
+
+    }
+
+
+    private static class SwitchSpec {
+        final String name;
+        final int index;
+        final int ports;
+        final int workers;
+        int priority = NetworkSwitch.DEFAULT_BRIDGE_PRIORITY;
+
+        SwitchSpec(String name, int index, int ports, int workers) {
+            this.name = name;
+            this.index = index;
+            this.ports = ports;
+            this.workers = workers;
+        }
+    }
+
+    private static class HostSpec {
+        final String name;
+        final int address;
+        final String switchName;
+        final int port;
+        int assigned;
+
+        HostSpec(String name, int address, String switchName, int port) {
+            this.name = name;
+            this.address = address;
+            this.switchName = switchName;
+            this.port = port;
+        }
+    }
+
+    private static class TrunkSpec {
+        final String switchA;
+        final int portA;
+        final String switchB;
+        final int portB;
+        int assignedA;
+        int assignedB;
+
+        TrunkSpec(String switchA, int portA, String switchB, int portB) {
+            this.switchA = switchA;
+            this.portA = portA;
+            this.switchB = switchB;
+            this.portB = portB;
+        }
+    }
+
+    private static class ApplicationSpec {
+        final String hostname;
+        final ApplicationFactory factory;
+        final String[] args;
+
+        ApplicationSpec(String hostname, ApplicationFactory factory, String[] args) {
+            this.hostname = hostname;
+            this.factory = factory;
+            this.args = args;
+        }
+    }
+
+}
@@ -32,6 +32,12 @@ public interface NetworkCard {
      * This method is USED BY THE NETWORK SWITCH (or SwitchPort)
      * to send a packet of data from the network to this computer.
      */
-    public void sendToComputer(byte[] packet);
+    public void sendToComputer(Packet packet);
+
+    /*
+     * As sendToComputer() but never waits: returns false, without
+     * taking the packet, if the computer cannot take it straight away.
+     */
+    public boolean offerToComputer(Packet packet);
 
 }
@@ -5,34 +5,166 @@ package switched_network;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  *
- * Defines a network switch with a number of LAN Ports.
+ * Defines a network switch with a number of LAN Ports, which
+ * forwards each packet it receives towards its destination.
  *
  * @author K. Bryson.
  */
 public class NetworkSwitch extends Thread {
 
+    /*
+     * How the switch thread finds out about incoming packets. By
+     * default a SwitchPort wakes an EVENT_DRIVEN switch as soon as a
+     * packet arrives, so it is forwarded immediately. A POLLING switch
+     * scans the ports every 100 ms, as the switch originally did.
+     */
+    public enum ForwardingMode {
+        POLLING,
+        EVENT_DRIVEN,
+        SIMULATED
+    }
+
+    /*
+     * What to do with a packet whose destination is not in the table:
+     * send it out of every other port, drop it, or send it to the
+     * uplink port. Such packets are counted under the policy applied.
+     */
+    public enum UnknownDestinationPolicy {
+        FLOOD,
+        DROP,
+        UPLINK
+    }
+
+    public final static long DEFAULT_AGEING_TIME_MS = 300000;
+    public final static int DEFAULT_BRIDGE_PRIORITY = 32768;
+    public final static long DEFAULT_FORWARDING_DELAY_NS = 1000;
+
     private final SwitchPort[] ports;
+    private final ForwardingMode mode;
+
+    private int workerCount = 1;
+    // Created at power up. A SIMULATED switch forwards in events instead, so has none.
+    private volatile ForwardingWorker[] workers;
+    private volatile boolean poweredUp = false;
     
-    private HashMap<InetAddress, Integer> table;
+    // Raw IPv4 address -> port number, looked up without allocating.
+    // Shared by the workers, so guarded by the table lock. Source
+    // addresses are learned from the packets forwarded; the addresses
+    // of computers connected directly to a port are static.
+    private AddressTable table;
+    private ReadWriteLock tableLock = new ReentrantReadWriteLock();
+
+    private volatile long ageingTimeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_AGEING_TIME_MS);
+    private volatile UnknownDestinationPolicy unknownPolicy = UnknownDestinationPolicy.FLOOD;
+    private volatile int uplinkPort = -1;
+    private volatile int bridgePriority = DEFAULT_BRIDGE_PRIORITY;
+    // Breaks ties in priority, as the MAC address in an IEEE bridge ID does.
+    private final static AtomicLong nextBridgeId = new AtomicLong();
+    private volatile long bridgeId = nextBridgeId.incrementAndGet();
+
+    // Packets for unknown destinations, indexed by the policy applied to them.
+    private final AtomicLongArray unknownDestinations = new AtomicLongArray(UnknownDestinationPolicy.values().length);
+    private final AtomicLong forwardingErrors = new AtomicLong();
+    private final AtomicLong broadcasts = new AtomicLong();
+    private final AtomicLong multicasts = new AtomicLong();
+
+    // Multicast groups joined by the computers on each port. A multicast
+    // packet goes out of the members' ports and of the trunks, which carry
+    // it on to members behind other switches; a broadcast out of every port.
+    // Each copy is the same packet with a reference of its own.
+    private final GroupTable groups = new GroupTable();
+    private volatile long lastAgeing = System.nanoTime();
+    private final SwitchMetrics metrics = new SwitchMetrics(this);
+
+    // Delivers packets at the end of modelled links, created when first needed.
+    private ScheduledExecutorService linkTimer = null;
+
+    // Runs the ports' egress drainers, created when first needed.
+    // Each port drains its own egress queue, so one computer falling
+    // behind does not hold up the packets for any other.
+    private ExecutorService egressExecutor = null;
+
+    // Only used by a SIMULATED switch, which runs one event at a time.
+    private final Simulation simulation;
+    private volatile long forwardingDelayNanos = DEFAULT_FORWARDING_DELAY_NS;
+    private boolean[] forwardingScheduled;
+    private List<Packet> simulatedBatch;
+    private int[] simulatedEgress;
+
+    // Ports which had a computer connected and still need a static table entry.
+    private ConcurrentLinkedQueue<SwitchPort> connectedPorts = new ConcurrentLinkedQueue<SwitchPort>();
     
     /*
      * Create a Network Switch the specified number of LAN Ports.
      */
     public NetworkSwitch(int numberPorts) {
+
+        this(numberPorts, ForwardingMode.EVENT_DRIVEN);
+
+    }
+
+    /*
+     * Create a Network Switch the specified number of LAN Ports
+     * which uses the given mode to pick up incoming packets.
+     */
+    public NetworkSwitch(int numberPorts, ForwardingMode mode) {
+
+        this(numberPorts, mode, null);
+
+    }
+
+    /*
+     * Create a Network Switch the specified number of LAN Ports
+     * which forwards packets as events of the simulation.
+     * It has no threads at all: each arriving packet schedules an
+     * event, after the forwarding delay, which forwards the packets
+     * waiting on that port in virtual time.
+     */
+    public NetworkSwitch(int numberPorts, Simulation simulation) {
+
+        this(numberPorts, ForwardingMode.SIMULATED, simulation);
+
+    }
+
+    private NetworkSwitch(int numberPorts, ForwardingMode mode, Simulation simulation) {
     	
+        if ((mode == ForwardingMode.SIMULATED) != (simulation != null)) {
+            throw new IllegalArgumentException("A SIMULATED switch needs a Simulation, and only it can have one");
+        }
+
         ports = new SwitchPort[numberPorts];
+        this.mode = mode;
+        this.simulation = simulation;
+
+        if (simulation != null) {
+            forwardingScheduled = new boolean[numberPorts];
+            simulatedBatch = new ArrayList<Packet>(ForwardingWorker.BATCH_SIZE);
+            simulatedEgress = new int[ForwardingWorker.BATCH_SIZE];
+            lastAgeing = simulation.now();
+        }
 
         // Create each ports.
         for (int i = 0; i < numberPorts; i++) {
-            ports[i] = new SwitchPort(i);
+            ports[i] = new SwitchPort(i, this);
         }
 
         // Create Hash table linking ports to ip address
-        this.table = new HashMap<InetAddress, Integer>();
+        this.table = new AddressTable(numberPorts);
         
     }
 
@@ -49,12 +181,284 @@ public class NetworkSwitch extends Thread {
     	return ports[number];
     	
     }
+
+
+    public ForwardingMode getForwardingMode() {
+
+        return mode;
+
+    }
+
+
+    /*
+     * Set the number of worker threads servicing the ports. Port i is
+     * serviced by worker (i % workers), each on its own thread, so
+     * forwarding scales with the number of cores. Must be called
+     * before the switch is powered up.
+     */
+    public void setWorkerCount(int count) {
+
+        if (count < 1 || count > ports.length) {
+            throw new IllegalArgumentException("Worker count must be between 1 and " + ports.length + ": " + count);
+        }
+        if (poweredUp) {
+            throw new IllegalStateException("Switch is already powered up");
+        }
+        workerCount = count;
+
+    }
+
+
+    /*
+     * Whether powerUp() has been called.
+     */
+    boolean isPoweredUp() {
+        return poweredUp;
+    }
+
+
+    public int getWorkerCount() {
+
+        return workerCount;
+
+    }
+
+
+    /*
+     * Set how long a learned address is kept without being seen again,
+     * after which packets for it are treated as for an unknown destination.
+     */
+    public void setAgeingTime(long time, TimeUnit unit) {
+
+        ageingTimeNanos = unit.toNanos(time);
+
+    }
+
+
+    public void setUnknownDestinationPolicy(UnknownDestinationPolicy policy) {
+
+        unknownPolicy = policy;
+
+    }
+
+
+    public UnknownDestinationPolicy getUnknownDestinationPolicy() {
+
+        return unknownPolicy;
+
+    }
+
+
+    /*
+     * Set the port which receives packets for unknown destinations
+     * under the UPLINK policy, or -1 for none (such packets are dropped).
+     */
+    public void setUplinkPort(int number) {
+
+        if (number < -1 || number >= ports.length) {
+            throw new IllegalArgumentException("No such port: " + number);
+        }
+        uplinkPort = number;
+
+    }
+
+
+    public int getUplinkPort() {
+
+        return uplinkPort;
+
+    }
+
+
+    /*
+     * The switch with the lowest priority becomes the root of a
+     * SpanningTree, ties going to the lowest bridge ID.
+     */
+    public void setBridgePriority(int priority) {
+
+        this.bridgePriority = priority;
+
+    }
+
+    public int getBridgePriority() {
+
+        return bridgePriority;
+
+    }
+
+
+    /*
+     * Set the identifier which decides between switches of the same
+     * bridge priority. By default switches are numbered from 1 in the
+     * order they are created.
+     */
+    public void setBridgeId(long id) {
+
+        this.bridgeId = id;
+
+    }
+
+    public long getBridgeId() {
+
+        return bridgeId;
+
+    }
+
+
+    /*
+     * Give a traffic class strict priority on every port of the switch
+     * (see SwitchPort.setStrictPriority()).
+     */
+    public void setStrictPriority(int trafficClass) {
+
+        for (SwitchPort port : ports) port.setStrictPriority(trafficClass);
+
+    }
+
+    /*
+     * Set the weight of a traffic class on every port of the switch
+     * (see SwitchPort.setClassWeight()).
+     */
+    public void setClassWeight(int trafficClass, int weight) {
+
+        for (SwitchPort port : ports) port.setClassWeight(trafficClass, weight);
+
+    }
+
+
+    /*
+     * Number of packets with an unknown destination which were handled
+     * by the given policy. UPLINK packets which could not be sent to an
+     * uplink port are counted as DROP.
+     */
+    public long getUnknownDestinationCount(UnknownDestinationPolicy policy) {
+
+        return unknownDestinations.get(policy.ordinal());
+
+    }
+
+
+    /*
+     * Number of broadcast packets forwarded.
+     */
+    public long getBroadcastCount() {
+
+        return broadcasts.get();
+
+    }
+
+
+    /*
+     * Number of multicast packets forwarded, each counted once
+     * however many ports it went out of.
+     */
+    public long getMulticastCount() {
+
+        return multicasts.get();
+
+    }
+
+
+    /*
+     * The ports whose computers have joined the multicast group.
+     */
+    public int[] getGroupMembers(InetAddress group) {
+
+        return groups.getMembers(Packet.toInt(group)).clone();
+
+    }
+
+
+    /*
+     * Number of packets which could not be forwarded because of an error.
+     * The switch loses such a packet but carries on forwarding.
+     */
+    public long getForwardingErrors() {
+
+        return forwardingErrors.get();
+
+    }
+
+
+    /*
+     * Totals over all ports together with the switch's own counters.
+     * Each port's own counts are in SwitchPort.getMetrics().
+     */
+    public SwitchMetrics getMetrics() {
+
+        return metrics;
+
+    }
+
+
+    /*
+     * Used by the ports' LinkModels to deliver packets in real time.
+     */
+    synchronized ScheduledExecutorService getLinkTimer() {
+
+        if (linkTimer == null) {
+            linkTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, getName() + "-links");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return linkTimer;
+
+    }
+
+
+    /*
+     * Used by the ports to drain their egress queues. Each port has at
+     * most one drainer running, and a drainer waiting on a slow computer
+     * holds a thread of its own, so the other ports carry on.
+     */
+    synchronized ExecutorService getEgressExecutor() {
+
+        if (egressExecutor == null) {
+            egressExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private int count = 0;
+
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, getName() + "-egress-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return egressExecutor;
+
+    }
+
+
+    /*
+     * The simulation a SIMULATED switch belongs to, otherwise null.
+     */
+    public Simulation getSimulation() {
+
+        return simulation;
+
+    }
+
+
+    /*
+     * Virtual time a SIMULATED switch takes to forward a packet.
+     */
+    public void setForwardingDelay(long delay, TimeUnit unit) {
+
+        this.forwardingDelayNanos = unit.toNanos(delay);
+
+    }
     
     /*
      * Power up the Network Switch so that it starts
      * processing/forwarding network packet traffic.
      */
     public void powerUp() throws UnknownHostException {
+    	if (mode != ForwardingMode.SIMULATED) workers = createWorkers();
+    	
     	for (int i = 0; i < ports.length; i++) {
     		InetAddress ipAddress = ports[i].getIPAddress();
     		
@@ -62,77 +466,376 @@ public class NetworkSwitch extends Thread {
     			continue;
     		}
 
-    		table.put(ipAddress, i);
+    		table.put(Packet.toInt(ipAddress), i);
+    	}
+    	
+    	poweredUp = true;
+    	if (simulation == null) {
+    		start();
+    		return;
+    	}
+    	
+    	//Pick up the packets sent before power up
+    	for (int i = 0; i < ports.length; i++) {
+    		if (ports[i].getQueueLength() > 0) scheduleForwarding(i);
+    	}
+    }
+
+    /*Forward the packets waiting on a port after the forwarding delay*/
+    private void scheduleForwarding(final int portNumber) {
+    	if (!poweredUp || forwardingScheduled[portNumber]) return;
+    	
+    	forwardingScheduled[portNumber] = true;
+    	simulation.schedule(forwardingDelayNanos, TimeUnit.NANOSECONDS, new Runnable() {
+    		public void run() {
+    			forwardingScheduled[portNumber] = false;
+    			forwardSimulated(portNumber);
+    		}
+    	});
+    }
+    
+    /*The event forwarding everything waiting on one port*/
+    private void forwardSimulated(int portNumber) {
+    	long now = simulation.now();
+    	maintainTable(now);
+    	
+    	SwitchPort port = ports[portNumber];
+    	while (true) {
+    		simulatedBatch.clear();
+    		port.drainIncomingPackets(simulatedBatch, ForwardingWorker.BATCH_SIZE);
+    		if (simulatedBatch.isEmpty()) return;
+    		
+    		forward(simulatedBatch, portNumber, now, simulatedEgress);
     	}
+    }
+
+    /*Split the ports between the workers, port i going to worker i % workers*/
+    private ForwardingWorker[] createWorkers() {
+    	ForwardingWorker[] created = new ForwardingWorker[workerCount];
     	
-    	start();
+    	for (int w = 0; w < workerCount; w++) {
+    		SwitchPort[] group = new SwitchPort[(ports.length - w + workerCount - 1) / workerCount];
+    		for (int i = 0; i < group.length; i++) {
+    			group[i] = ports[w + i * workerCount];
+    		}
+    		created[w] = new ForwardingWorker(this, group);
+    	}
+    	return created;
     }
 
-    // This thread is responsible for delivering any current incoming packets.
+    // This thread runs the first worker and starts the others.
     public void run() {
     	
-        while (true) {
-            try {
-                sleep(100);
-            } catch (InterruptedException except) { }
-            
-            for (SwitchPort port: this.ports) {
-            	//Check incoming packets only on connected ports
-            	if (port.getIPAddress() == null) continue;
-
-	            //Get incoming bytes
-		    	byte[] packet = port.getIncomingPacket();
-
-		    	//If no packet received, ignore this loop
-		    	if (packet == null) continue;
-		
-				try {
-					//Extract the destination ip address of the packet
-			    	byte[] dst_address = extractData(packet, 4, 4);
-					InetAddress ipAddress = InetAddress.getByAddress(dst_address);
-					
-					//Get port number associated with the ip address
-					Integer port_no = table.get(ipAddress);
-
-					//Port number not found in table, try find port
-					if (port_no == null) {
-						manualScan(packet, ipAddress);
-						return;
-					}
-					
-					//Send packet through the specific port
-					ports[port_no].sendToComputer(packet);
-					
-					
-				} catch (UnknownHostException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-	
-	        }
-        }
+    	for (int w = 1; w < workers.length; w++) {
+    		Thread worker = new Thread(workers[w], getName() + "-worker-" + w);
+    		worker.setDaemon(isDaemon());
+    		worker.start();
+    	}
+    	
+    	workers[0].run();
+    }
+
+    /*
+     * Used by the workers to learn where a packet came from and
+     * send it towards its destination. A packet which cannot be
+     * forwarded is counted and lost without stopping the worker.
+     * The port's policer checks it against the time of the worker's
+     * scan, so that policing does not read the clock for each packet.
+     */
+    void forward(Packet packet, int ingress, long now) {
+    	//Nothing is accepted from a blocked port
+    	if (ports[ingress].isBlocked()) {
+    		packet.release();
+    		return;
+    	}
+    	if (!ports[ingress].police(packet, now)) return;
+    	
+    	try {
+    		forwardPacket(packet, ingress, now);
+    		
+    	} catch (RuntimeException e) {
+    		//Lose this packet but keep the switch running
+    		forwardingErrors.incrementAndGet();
+    		e.printStackTrace();
+    	}
     }
     
-    /*ip address not associated with any port no*/
-    private void manualScan(byte[] packet, InetAddress ipAddress) {
+    /*
+     * As forward() for a batch of packets which all arrived on the same
+     * port, taking the table lock once for the whole batch. The egress
+     * array is scratch space with room for one entry per packet.
+     */
+    void forward(List<Packet> packets, int ingress, long now, int[] egress) {
+    	int n = packets.size();
+    	boolean learn = false;
+    	
+    	//Nothing is accepted from a blocked port
+    	if (ports[ingress].isBlocked()) {
+    		for (int i = 0; i < n; i++) packets.get(i).release();
+    		return;
+    	}
+    	
+    	//Drop what the policer does not allow, keeping the rest in order
+    	if (ports[ingress].getPolicer() != null) {
+    		int kept = 0;
+    		for (int i = 0; i < n; i++) {
+    			Packet packet = packets.get(i);
+    			if (ports[ingress].police(packet, now)) packets.set(kept++, packet);
+    		}
+    		while (n > kept) packets.remove(--n);
+    		if (n == 0) return;
+    	}
+    	
+    	tableLock.readLock().lock();
+    	try {
+    		for (int i = 0; i < n; i++) {
+    			Packet packet = packets.get(i);
+    			egress[i] = table.get(packet.getDestinationAddress());
+    			learn |= needsLearning(packet.getSourceAddress(), ingress, now);
+    		}
+    	} finally {
+    		tableLock.readLock().unlock();
+    	}
+    	
+    	if (learn) {
+    		tableLock.writeLock().lock();
+    		try {
+    			for (int i = 0; i < n; i++) learnLocked(packets.get(i).getSourceAddress(), ingress, now);
+    		} finally {
+    			tableLock.writeLock().unlock();
+    		}
+    	}
+    	
+    	for (int i = 0; i < n; i++) {
+    		try {
+    			deliver(packets.get(i), egress[i], ingress);
+    			
+    		} catch (RuntimeException e) {
+    			//Lose this packet but keep the switch running
+    			forwardingErrors.incrementAndGet();
+    			e.printStackTrace();
+    		}
+    	}
+    }
+    
+    private void forwardPacket(Packet packet, int ingress, long now) {
+    	int src_address = packet.getSourceAddress();
+    	int dst_address = packet.getDestinationAddress();
+    	
+    	int port_no;
+    	boolean learn;
+    	
+    	tableLock.readLock().lock();
+    	try {
+    		//Get port number associated with the destination address
+    		port_no = table.get(dst_address);
+    		learn = needsLearning(src_address, ingress, now);
+    	} finally {
+    		tableLock.readLock().unlock();
+    	}
+    	
+    	if (learn) learn(src_address, ingress, now);
+
+    	deliver(packet, port_no, ingress);
+    }
+    
+    /*Send the packet out of the port found for its destination*/
+    private void deliver(Packet packet, int port_no, int ingress) {
+    	if (port_no < 0) {
+    		//Group addresses are never learned, so are only looked for here
+    		int dst_address = packet.getDestinationAddress();
+    		if (Packet.isBroadcast(dst_address)) {
+    			broadcasts.incrementAndGet();
+    			flood(packet, ingress);
+    		} else if (Packet.isMulticast(dst_address)) {
+    			multicasts.incrementAndGet();
+    			multicast(packet, dst_address, ingress);
+    		} else {
+    			forwardUnknown(packet, ingress);
+    		}
+    		return;
+    	}
+    	
+    	//Never send a packet back out of the port it came in on,
+    	//or out of a port blocked to break a loop
+    	if (port_no == ingress || ports[port_no].isBlocked()) {
+    		packet.release();
+    		return;
+    	}
+    	
+    	//Send packet through the specific port
+    	ports[port_no].sendToComputer(packet);
+    }
+    
+    /*Apply the unknown destination policy to a packet and count it*/
+    private void forwardUnknown(Packet packet, int ingress) {
+    	UnknownDestinationPolicy policy = unknownPolicy;
+    	
+    	if (policy == UnknownDestinationPolicy.FLOOD) {
+    		flood(packet, ingress);
+    		
+    	} else if (policy == UnknownDestinationPolicy.DROP) {
+    		packet.release();
+    		
+    	} else if (policy == UnknownDestinationPolicy.UPLINK) {
+    		int uplink = uplinkPort;
+    		
+    		//No usable uplink, so the packet is dropped instead
+    		if (uplink < 0 || uplink == ingress || !ports[uplink].isConnected()
+    				|| ports[uplink].isBlocked()) {
+    			policy = UnknownDestinationPolicy.DROP;
+    			packet.release();
+    		} else {
+    			ports[uplink].sendToComputer(packet);
+    		}
+    	}
+    	
+    	unknownDestinations.incrementAndGet(policy.ordinal());
+    }
+    
+    /*Send a packet out of every connected, unblocked port except the one it came in on*/
+    private void flood(Packet packet, int ingress) {
+    	for (SwitchPort port: this.ports) {
+    		if (!port.isConnected() || port.isBlocked() || port.getNumber() == ingress) continue;
+    		
+    		//Every port shares the packet, each with its own reference
+    		port.sendToComputer(packet.retain());
+    	}
+    	packet.release();
+    }
+    
+    /*Send a packet to the members of its group and along every trunk*/
+    private void multicast(Packet packet, int group, int ingress) {
+    	for (int port_no: groups.getMembers(group)) {
+    		SwitchPort port = ports[port_no];
+    		if (port_no == ingress || port.isBlocked()) continue;
+    		
+    		port.sendToComputer(packet.retain());
+    	}
+    	
+    	//Trunk ports have no address of their own
     	for (SwitchPort port: this.ports) {
-    		if (port.getIPAddress() == null) continue;
+    		if (port.getIPAddress() != null || !port.isConnected() || port.isBlocked()
+    				|| port.getNumber() == ingress) continue;
     		
-    		//ip address found after search
-    		if (port.getIPAddress().equals(ipAddress)) {
-    			port.sendToComputer(packet);
+    		port.sendToComputer(packet.retain());
+    	}
+    	packet.release();
+    }
+    
+    /*
+     * Only take the write lock if the source is new, has moved or is
+     * getting old. Called with the read lock held.
+     */
+    private boolean needsLearning(int src_address, int ingress, long now) {
+    	return table.get(src_address) != ingress || needsRefresh(table.getTimestamp(src_address), now);
+    }
+    
+    /*Learn the port the source address is reached through*/
+    private void learn(int src_address, int ingress, long now) {
+    	tableLock.writeLock().lock();
+    	try {
+    		learnLocked(src_address, ingress, now);
+    	} finally {
+    		tableLock.writeLock().unlock();
+    	}
+    }
+    
+    private void learnLocked(int src_address, int ingress, long now) {
+    	//Static entries of directly connected computers are never replaced
+    	if (table.getTimestamp(src_address) != Long.MAX_VALUE) {
+    		table.put(src_address, ingress, now);
+    	}
+    }
+    
+    /*A learned entry is refreshed a few times per ageing period*/
+    private boolean needsRefresh(long timestamp, long now) {
+    	return timestamp != Long.MAX_VALUE && now - timestamp > ageingTimeNanos / 8;
+    }
+    
+    /*
+     * Used by the workers before each scan to add static entries for
+     * newly connected computers and forget learned addresses which
+     * have not been seen within the ageing time.
+     */
+    void maintainTable(long now) {
+    	long ageingTime = ageingTimeNanos;
+    	
+    	//Only sweep the table a few times per ageing period
+    	boolean age = now - lastAgeing >= ageingTime / 4;
+    	if (connectedPorts.isEmpty() && !age) return;
+    	
+    	tableLock.writeLock().lock();
+    	try {
+    		SwitchPort port;
+    		while ((port = connectedPorts.poll()) != null) {
+    			table.put(Packet.toInt(port.getIPAddress()), port.getNumber());
+    		}
+    		
+    		if (age && now - lastAgeing >= ageingTime / 4) {
+    			lastAgeing = now;
+    			table.removeOlderThan(now - ageingTime);
     		}
+    	} finally {
+    		tableLock.writeLock().unlock();
     	}
     }
     
-    /*Used to extract data from packet using offset and size*/
-    private byte[] extractData(byte[] packet, int offset, int size) {
-    	byte[] data = new byte[size];
-    	for (int i = 0; i < size; i++) {
-    		data[i] = packet[i+offset];
+    /*
+     * Forget every learned address, keeping the static entries.
+     * Used when ports are blocked or unblocked, as learned
+     * addresses may then be reached through a different port.
+     */
+    void forgetLearned() {
+    	tableLock.writeLock().lock();
+    	try {
+    		table.removeOlderThan(Long.MAX_VALUE);
+    	} finally {
+    		tableLock.writeLock().unlock();
     	}
-    	return data;
     }
     
+    /*
+     * Used by a SwitchPort to tell the switch that a packet
+     * is ready to be forwarded. Wakes the worker servicing the
+     * port in EVENT_DRIVEN mode, and schedules the port to be
+     * forwarded in SIMULATED mode.
+     */
+    void packetArrived(int portNumber) {
+    	if (mode == ForwardingMode.SIMULATED) {
+    		scheduleForwarding(portNumber);
+    		return;
+    	}
+    	if (mode != ForwardingMode.EVENT_DRIVEN) return;
+    	
+    	//Packets sent before power up are picked up by the first scan
+    	ForwardingWorker[] current = workers;
+    	if (current == null) return;
+    	
+    	current[portNumber % current.length].packetArrived();
+    }
+
+    /*
+     * Used by a SwitchPort when a computer is connected to it,
+     * so that the computer can be reached straight away even
+     * if the switch is already powered up.
+     */
+    void portConnected(SwitchPort port) {
+    	//Trunk ports have no address of their own
+    	if (port.getIPAddress() != null) connectedPorts.add(port);
+    	packetArrived(port.getNumber());
+    }
+
+    /*
+     * Used by a SwitchPort when its computer joins or leaves a multicast group.
+     */
+    void joinGroup(int group, int port) {
+    	groups.join(group, port);
+    }
+
+    void leaveGroup(int group, int port) {
+    	groups.leave(group, port);
+    }
+
 }
 
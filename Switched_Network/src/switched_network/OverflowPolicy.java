@@ -0,0 +1,24 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+/**
+ *
+ * What a bounded queue does when a packet arrives and it is already full.
+ *
+ */
+public enum OverflowPolicy {
+
+    /*
+     * Block the caller until there is room in the queue.
+     */
+    BLOCK,
+
+    /*
+     * Throw away the new packet (and count it as dropped).
+     */
+    DROP_TAIL
+
+}
@@ -0,0 +1,479 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ *
+ * A network packet held in a single ByteBuffer using the simplified
+ * header format from the coursework description:
+ *
+ *   bytes 0-3   source IPv4 address
+ *   bytes 4-7   destination IPv4 address
+ *   bytes 8-9   source port (low byte first)
+ *   bytes 10-11 destination port (low byte first)
+ *   byte  12    traffic class
+ *   bytes 13-16 message id
+ *   bytes 17-20 fragment offset
+ *   bytes 21-24 message length
+ *   bytes 25-   payload
+ *
+ * A packet is built once by the sending computer and then passed by
+ * reference through the SwitchPort, NetworkSwitch and NetworkCard.
+ * The header fields are read in place and the payload is exposed as
+ * a view, so nothing is copied until the receiving application asks
+ * for the payload.
+ *
+ * A packet taken from a PacketPool is reference counted. Whoever holds
+ * a reference must release() it once it is finished with the packet
+ * (delivered it, dropped it, or copied the payload out), and must
+ * retain() it first if it passes the same packet on more than once.
+ * When the last reference is released the packet goes back to its pool
+ * to be reused. Packets not from a pool ignore retain() and release().
+ *
+ * A message longer than fits in one packet is sent as fragments which
+ * share the sender's message id. Each carries the offset of its payload
+ * within the message and the length of the whole message, from which
+ * the receiving Computer reassembles it. A packet holding a whole
+ * message has offset 0 and a message length equal to its payload.
+ * A reassembled message is a packet made of its fragments rather than
+ * a copy of them; releasing it releases the fragments. It is only ever
+ * held by the receiving computer and its application.
+ *
+ * A destination of BROADCAST_ADDRESS (255.255.255.255) goes to every
+ * computer, and one in 224.0.0.0/4 to the computers which have joined
+ * that multicast group. Switches replicate such packets by reference
+ * (see retain()), so every receiver shares the one buffer.
+ *
+ * The traffic class, from 0 (the default) to TRAFFIC_CLASSES - 1,
+ * chooses which egress queue the packet waits in at each switch port
+ * (see SwitchPort.setStrictPriority() and setClassWeight()).
+ *
+ * Packets must not be modified once they have been sent.
+ *
+ */
+public final class Packet {
+
+    public final static int HEADER_LENGTH = 25;
+
+    public final static int BROADCAST_ADDRESS = 0xFFFFFFFF;
+
+    public final static int TRAFFIC_CLASSES = 8;
+    public final static int DEFAULT_TRAFFIC_CLASS = 0;
+
+    // Timestamp of a packet whose send time was not recorded.
+    final static long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final static int SRC_ADDRESS = 0;
+    private final static int DST_ADDRESS = 4;
+    private final static int SRC_PORT = 8;
+    private final static int DST_PORT = 10;
+    private final static int TRAFFIC_CLASS = 12;
+    private final static int MESSAGE_ID = 13;
+    private final static int FRAGMENT_OFFSET = 17;
+    private final static int MESSAGE_LENGTH = 21;
+
+    private final static AtomicIntegerFieldUpdater<Packet> REFERENCES =
+            AtomicIntegerFieldUpdater.newUpdater(Packet.class, "references");
+
+    private final ByteBuffer buffer;
+    private int length;
+
+    // When the packet was sent (System.nanoTime(), or virtual time in a
+    // Simulation). Only used for metrics, it is not part of the header.
+    private long timestamp = NO_TIMESTAMP;
+
+    // Null if the packet does not belong to a pool.
+    private final PacketPool pool;
+    private volatile int references = 0;
+
+    // The fragments, in offset order, of a reassembled message, otherwise null.
+    private Packet[] fragments = null;
+
+
+    private Packet(ByteBuffer buffer, PacketPool pool) {
+
+        this.buffer = buffer;
+        this.length = buffer.limit();
+        this.pool = pool;
+
+    }
+
+    /*
+     * An empty packet with room for the given length, owned by the pool.
+     */
+    static Packet allocate(int capacity, boolean direct, PacketPool pool) {
+
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        return new Packet(buffer, pool);
+
+    }
+
+    /*
+     * Build a packet with the given header fields and a copy of the payload,
+     * optionally in a direct (off-heap) buffer. The packet is not pooled.
+     */
+    public static Packet create(int src_address, int dst_address, int src_port, int dst_port,
+                                byte[] payload, boolean direct) {
+        return create(src_address, dst_address, src_port, dst_port, DEFAULT_TRAFFIC_CLASS, payload, direct);
+    }
+
+    /*
+     * As above for the given traffic class.
+     */
+    public static Packet create(int src_address, int dst_address, int src_port, int dst_port,
+                                int trafficClass, byte[] payload, boolean direct) {
+
+        Packet packet = allocate(HEADER_LENGTH + payload.length, direct, null);
+        packet.fill(src_address, dst_address, src_port, dst_port, trafficClass, payload);
+        return packet;
+
+    }
+
+    /*
+     * As above for one fragment of a message.
+     */
+    static Packet create(int src_address, int dst_address, int src_port, int dst_port, int trafficClass,
+                         int messageId, byte[] message, int offset, int fragmentLength, boolean direct) {
+
+        Packet packet = allocate(HEADER_LENGTH + fragmentLength, direct, null);
+        packet.fill(src_address, dst_address, src_port, dst_port, trafficClass, messageId, message, offset, fragmentLength);
+        return packet;
+
+    }
+
+    /*
+     * Use the remaining bytes of the buffer (header included) as a packet.
+     * The buffer is shared, not copied.
+     */
+    public static Packet wrap(ByteBuffer buffer) {
+        return new Packet(checkLength(buffer.slice()), null);
+    }
+
+    /*
+     * Use the byte array (header included) as a packet.
+     * The array is shared, not copied.
+     */
+    public static Packet wrap(byte[] packet) {
+        return new Packet(checkLength(ByteBuffer.wrap(packet)), null);
+    }
+
+    /*
+     * Write the header and payload. Only called by whoever owns the
+     * packet before it is sent, so moving the position is safe.
+     */
+    void fill(int src_address, int dst_address, int src_port, int dst_port, int trafficClass, byte[] payload) {
+        fill(src_address, dst_address, src_port, dst_port, trafficClass, 0, payload, 0, payload.length);
+    }
+
+    /*
+     * As above for the fragment of a message holding the given part
+     * of its payload.
+     */
+    void fill(int src_address, int dst_address, int src_port, int dst_port, int trafficClass,
+              int messageId, byte[] message, int offset, int fragmentLength) {
+
+        checkTrafficClass(trafficClass);
+
+        length = HEADER_LENGTH + fragmentLength;
+        timestamp = NO_TIMESTAMP;
+
+        buffer.putInt(SRC_ADDRESS, src_address);
+        buffer.putInt(DST_ADDRESS, dst_address);
+        putPort(buffer, SRC_PORT, src_port);
+        putPort(buffer, DST_PORT, dst_port);
+        buffer.put(TRAFFIC_CLASS, (byte) trafficClass);
+        buffer.putInt(MESSAGE_ID, messageId);
+        buffer.putInt(FRAGMENT_OFFSET, offset);
+        buffer.putInt(MESSAGE_LENGTH, message.length);
+
+        buffer.clear();
+        buffer.position(HEADER_LENGTH);
+        buffer.put(message, offset, fragmentLength);
+        buffer.position(0);
+        buffer.limit(length);
+
+    }
+
+    /*
+     * The whole message made of the first count fragments, which must
+     * cover it exactly in offset order. The message takes over their
+     * references and has the header and send time of the first.
+     */
+    static Packet forMessage(Packet[] fragments, int count) {
+
+        Packet first = fragments[0];
+        Packet message = allocate(HEADER_LENGTH, false, null);
+        for (int i = 0; i < HEADER_LENGTH; i++) message.buffer.put(i, first.buffer.get(i));
+
+        message.length = HEADER_LENGTH + first.getMessageLength();
+        message.timestamp = first.timestamp;
+        message.fragments = count == fragments.length ? fragments : Arrays.copyOf(fragments, count);
+        return message;
+
+    }
+
+
+    public int getSourceAddress() {
+        return buffer.getInt(SRC_ADDRESS);
+    }
+
+    public int getDestinationAddress() {
+        return buffer.getInt(DST_ADDRESS);
+    }
+
+    public int getSourcePort() {
+        return getPort(SRC_PORT);
+    }
+
+    public int getDestinationPort() {
+        return getPort(DST_PORT);
+    }
+
+    /*
+     * Chosen by the sender, the same for every fragment of a message.
+     */
+    public int getMessageId() {
+        return buffer.getInt(MESSAGE_ID);
+    }
+
+    /*
+     * Where the payload of this packet starts within its message.
+     */
+    public int getFragmentOffset() {
+        return buffer.getInt(FRAGMENT_OFFSET);
+    }
+
+    /*
+     * Length of the payload of the whole message.
+     */
+    public int getMessageLength() {
+        return buffer.getInt(MESSAGE_LENGTH);
+    }
+
+    /*
+     * Whether the packet holds only part of its message.
+     */
+    public boolean isFragment() {
+        return getMessageLength() != getPayloadLength();
+    }
+
+    /*
+     * The traffic class from the header. A wrapped packet with a value
+     * out of range is treated as the highest class.
+     */
+    public int getTrafficClass() {
+        return Math.min(buffer.get(TRAFFIC_CLASS) & 0xFF, TRAFFIC_CLASSES - 1);
+    }
+
+    /*
+     * Total length of the packet including the header.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public int getPayloadLength() {
+        return length - HEADER_LENGTH;
+    }
+
+    /*
+     * A read-only view of the payload which shares the packet's buffer.
+     * The view must not be used after the packet has been released.
+     * The payload of a reassembled message is copied.
+     */
+    public ByteBuffer payload() {
+        if (fragments != null) return ByteBuffer.wrap(copyPayload()).asReadOnlyBuffer();
+
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.limit(length);
+        view.position(HEADER_LENGTH);
+        return view.slice();
+    }
+
+    /*
+     * Copy the payload out into a new byte array.
+     */
+    public byte[] copyPayload() {
+        byte[] payload = new byte[getPayloadLength()];
+        copyPayload(payload);
+        return payload;
+    }
+
+    /*
+     * Copy as much of the payload as fits into the array, without
+     * allocating. Returns the full length of the payload.
+     */
+    public int copyPayload(byte[] into) {
+        int payloadLength = getPayloadLength();
+        int n = Math.min(payloadLength, into.length);
+
+        if (fragments == null) {
+            copyPayload(into, 0, n);
+            return payloadLength;
+        }
+
+        for (Packet fragment : fragments) {
+            int at = fragment.getFragmentOffset();
+            if (at >= n) break;
+            fragment.copyPayload(into, at, Math.min(fragment.getPayloadLength(), n - at));
+        }
+        return payloadLength;
+    }
+
+    /*Copy the first n bytes of the payload to the given place in the array*/
+    private void copyPayload(byte[] into, int at, int n) {
+        // Several receivers may read a packet at once, so only absolute reads are used.
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + HEADER_LENGTH, into, at, n);
+        } else {
+            for (int i = 0; i < n; i++) into[at + i] = buffer.get(HEADER_LENGTH + i);
+        }
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /*
+     * A read-only view of the whole packet, header included.
+     * A reassembled message is copied.
+     */
+    public ByteBuffer asByteBuffer() {
+        if (fragments != null) {
+            ByteBuffer copy = ByteBuffer.allocate(length);
+            for (int i = 0; i < HEADER_LENGTH; i++) copy.put(i, buffer.get(i));
+            copy.position(HEADER_LENGTH);
+            copy.put(copyPayload());
+            copy.position(0);
+            return copy.asReadOnlyBuffer();
+        }
+
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.limit(length);
+        return view;
+    }
+
+
+    /*
+     * Add a reference to a pooled packet, e.g. before handing the
+     * same packet to more than one receiver.
+     */
+    public Packet retain() {
+        if (pool == null) return this;
+
+        int count;
+        do {
+            count = references;
+            if (count <= 0) throw new IllegalStateException("Packet has already been released");
+        } while (!REFERENCES.compareAndSet(this, count, count + 1));
+        return this;
+    }
+
+    /*
+     * Give up a reference to a pooled packet, returning it to its
+     * pool when the last reference has gone.
+     */
+    public void release() {
+        if (fragments != null) {
+            Packet[] held = fragments;
+            fragments = null;
+            for (Packet fragment : held) fragment.release();
+            return;
+        }
+        if (pool == null) return;
+
+        int count = REFERENCES.decrementAndGet(this);
+        if (count == 0) {
+            pool.recycle(this);
+        } else if (count < 0) {
+            throw new IllegalStateException("Packet has already been released");
+        }
+    }
+
+    /*
+     * Used by the pool when it hands the packet out.
+     */
+    void acquired() {
+        references = 1;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    boolean isDirect() {
+        return buffer.isDirect();
+    }
+
+
+    public static boolean isBroadcast(int address) {
+        return address == BROADCAST_ADDRESS;
+    }
+
+    /*
+     * Whether the header address is a multicast group (224.0.0.0/4).
+     */
+    public static boolean isMulticast(int address) {
+        return address >>> 28 == 0xE;
+    }
+
+    /*
+     * Convert an IPv4 address to the 32 bit form used in the header.
+     */
+    public static int toInt(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (bytes.length != 4) {
+            throw new IllegalArgumentException("Only IPv4 addresses are supported: " + address);
+        }
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | bytes[3] & 0xFF;
+    }
+
+    /*
+     * Convert a 32 bit header address back to an InetAddress.
+     */
+    public static InetAddress toInetAddress(int address) {
+        byte[] bytes = { (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address };
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            // Cannot happen for a 4 byte address.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void checkTrafficClass(int trafficClass) {
+        if (trafficClass < 0 || trafficClass >= TRAFFIC_CLASSES) {
+            throw new IllegalArgumentException("Traffic class must be between 0 and "
+                                               + (TRAFFIC_CLASSES - 1) + ": " + trafficClass);
+        }
+    }
+
+    private static ByteBuffer checkLength(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_LENGTH) {
+            throw new IllegalArgumentException("Packet is shorter than its header: " + buffer.remaining());
+        }
+        return buffer;
+    }
+
+    private int getPort(int offset) {
+        return (buffer.get(offset + 1) & 0xFF) << 8 | buffer.get(offset) & 0xFF;
+    }
+
+    private static void putPort(ByteBuffer buffer, int offset, int port) {
+        buffer.put(offset, (byte) (port & 0xFF));
+        buffer.put(offset + 1, (byte) ((port >> 8) & 0xFF));
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ *
+ * A pool of reusable packets so that sending, forwarding and receiving
+ * do not allocate once the simulation has warmed up.
+ *
+ * Packets are kept in size classes of powers of two from MIN_CAPACITY
+ * up to MAX_CAPACITY bytes (header included); larger packets are not
+ * pooled. Each thread keeps a small cache of free packets per size
+ * class (fewer for the big classes, so that a cache never holds more
+ * than THREAD_CACHE_BYTES), and packets beyond that go to a bounded
+ * shared free list per
+ * size class. Packets released by receiving threads therefore flow
+ * back through the shared lists to the sending threads.
+ *
+ * A packet goes back to the pool when its last reference is released
+ * (see Packet.release()).
+ *
+ */
+public class PacketPool {
+
+    public final static int MIN_CAPACITY = 64;
+    public final static int MAX_CAPACITY = 65536;
+
+    public final static int DEFAULT_THREAD_CACHE_SIZE = 64;
+    public final static int DEFAULT_SHARED_SIZE = 4096;
+    public final static int THREAD_CACHE_BYTES = 256 * 1024;
+
+    private final static int CLASSES = Integer.numberOfTrailingZeros(MAX_CAPACITY)
+                                       - Integer.numberOfTrailingZeros(MIN_CAPACITY) + 1;
+
+    private static final PacketPool defaultPool = new PacketPool(false);
+
+    private final boolean direct;
+    private final ArrayBlockingQueue<Packet>[] shared;
+    private final ThreadLocal<ThreadCache> caches;
+
+
+    /*
+     * The pool Computers use unless told otherwise.
+     */
+    public static PacketPool getDefault() {
+        return defaultPool;
+    }
+
+    public PacketPool(boolean direct) {
+        this(direct, DEFAULT_THREAD_CACHE_SIZE, DEFAULT_SHARED_SIZE);
+    }
+
+    /*
+     * Create a pool of heap or direct packets, keeping up to threadCacheSize
+     * free packets per size class in each thread and up to sharedSize in
+     * each shared free list.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public PacketPool(boolean direct, final int threadCacheSize, int sharedSize) {
+
+        this.direct = direct;
+
+        this.shared = new ArrayBlockingQueue[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            shared[i] = new ArrayBlockingQueue<Packet>(sharedSize);
+        }
+
+        this.caches = new ThreadLocal<ThreadCache>() {
+            protected ThreadCache initialValue() {
+                return new ThreadCache(threadCacheSize);
+            }
+        };
+
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /*
+     * Take a packet from the pool and fill in its header and payload.
+     * The caller holds the only reference to it.
+     */
+    public Packet create(int src_address, int dst_address, int src_port, int dst_port, byte[] payload) {
+        return create(src_address, dst_address, src_port, dst_port, Packet.DEFAULT_TRAFFIC_CLASS, payload);
+    }
+
+    /*
+     * As above for the given traffic class.
+     */
+    public Packet create(int src_address, int dst_address, int src_port, int dst_port,
+                         int trafficClass, byte[] payload) {
+
+        Packet packet = acquire(Packet.HEADER_LENGTH + payload.length);
+        packet.fill(src_address, dst_address, src_port, dst_port, trafficClass, payload);
+        return packet;
+
+    }
+
+    /*
+     * As above for one fragment of a message.
+     */
+    Packet create(int src_address, int dst_address, int src_port, int dst_port, int trafficClass,
+                  int messageId, byte[] message, int offset, int fragmentLength) {
+
+        Packet packet = acquire(Packet.HEADER_LENGTH + fragmentLength);
+        packet.fill(src_address, dst_address, src_port, dst_port, trafficClass, messageId, message, offset, fragmentLength);
+        return packet;
+
+    }
+
+    /*
+     * Take a packet with room for at least the given length.
+     */
+    Packet acquire(int length) {
+
+        int sizeClass = sizeClass(length);
+
+        // Too big to pool.
+        if (sizeClass < 0) return Packet.allocate(length, direct, null);
+
+        Packet packet = caches.get().pop(sizeClass);
+        if (packet == null) packet = shared[sizeClass].poll();
+        if (packet == null) packet = Packet.allocate(MIN_CAPACITY << sizeClass, direct, this);
+
+        packet.acquired();
+        return packet;
+
+    }
+
+    /*
+     * Used by Packet.release() when the last reference has gone.
+     */
+    void recycle(Packet packet) {
+
+        int sizeClass = sizeClass(packet.capacity());
+
+        // If both the cache and the shared list are full the packet is left to the GC.
+        if (!caches.get().push(sizeClass, packet)) shared[sizeClass].offer(packet);
+
+    }
+
+    /*
+     * Number of free packets of the given capacity in the shared list.
+     */
+    public int getSharedFree(int capacity) {
+
+        int sizeClass = sizeClass(capacity);
+        return sizeClass < 0 ? 0 : shared[sizeClass].size();
+
+    }
+
+    /*Smallest class whose capacity holds the length, or -1 if none does*/
+    private static int sizeClass(int length) {
+
+        if (length > MAX_CAPACITY) return -1;
+        if (length <= MIN_CAPACITY) return 0;
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - Integer.numberOfTrailingZeros(MIN_CAPACITY);
+
+    }
+
+
+    /*
+     * Free packets held by one thread, a stack per size class.
+     */
+    private static class ThreadCache {
+
+        private final Packet[][] stacks;
+        private final int[] sizes;
+
+        ThreadCache(int size) {
+            stacks = new Packet[CLASSES][];
+            sizes = new int[CLASSES];
+
+            for (int c = 0; c < CLASSES; c++) {
+                int bytesLimit = Math.max(1, THREAD_CACHE_BYTES / (MIN_CAPACITY << c));
+                stacks[c] = new Packet[Math.min(size, bytesLimit)];
+            }
+        }
+
+        Packet pop(int sizeClass) {
+            if (sizes[sizeClass] == 0) return null;
+
+            int top = --sizes[sizeClass];
+            Packet packet = stacks[sizeClass][top];
+            stacks[sizeClass][top] = null;
+            return packet;
+        }
+
+        boolean push(int sizeClass, Packet packet) {
+            if (sizes[sizeClass] == stacks[sizeClass].length) return false;
+
+            stacks[sizeClass][sizes[sizeClass]++] = packet;
+            return true;
+        }
+
+    }
+
+}
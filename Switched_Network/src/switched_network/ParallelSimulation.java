@@ -0,0 +1,214 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *
+ * Runs a large simulated network on several cores by splitting it into
+ * partitions, each a Simulation of its own (typically a switch and the
+ * computers connected to it), and running the partitions in parallel.
+ *
+ * Partitions only affect each other through events posted with at least
+ * the lookahead delay, e.g. packets crossing a TrunkLink whose latency
+ * is at least the lookahead. The partitions are therefore synchronised
+ * conservatively in windows: every partition runs the events of the
+ * window [t, t + lookahead), where t is the earliest event of any
+ * partition, before any partition moves on. The events posted during
+ * a window all fall after it, and are handed over at the barrier
+ * between windows in a fixed order, so the results do not depend on
+ * the number of threads or how they were scheduled.
+ *
+ * The longer the lookahead compared to the time between events, the
+ * more work each window holds and the better the speed up.
+ *
+ */
+public class ParallelSimulation {
+
+    private final List<Simulation> partitions;
+    private final long lookaheadNanos;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    // Written by the barrier action, read by the threads after the barrier.
+    private volatile long windowEnd;
+    private volatile boolean finished;
+
+
+    /*
+     * Create the given number of partitions. The lookahead must be
+     * no longer than the latency of any link between partitions.
+     */
+    public ParallelSimulation(int partitions, long lookahead, TimeUnit unit) {
+
+        if (partitions < 1) throw new IllegalArgumentException("Need at least one partition: " + partitions);
+        this.lookaheadNanos = unit.toNanos(lookahead);
+        if (lookaheadNanos < 1) throw new IllegalArgumentException("The lookahead must be positive");
+
+        List<Simulation> created = new ArrayList<Simulation>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            Simulation simulation = new Simulation();
+            simulation.setPartition(this, i);
+            created.add(simulation);
+        }
+        this.partitions = Collections.unmodifiableList(created);
+
+    }
+
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    public Simulation getPartition(int index) {
+        return partitions.get(index);
+    }
+
+    public List<Simulation> getPartitions() {
+        return partitions;
+    }
+
+    /*
+     * The lookahead in nanoseconds.
+     */
+    public long getLookahead() {
+        return lookaheadNanos;
+    }
+
+    /*
+     * Number of threads the partitions are shared between.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /*
+     * The virtual time of the simulation, which all partitions
+     * share between runs: the time of the latest event, or the end
+     * of the last runUntil(), as for a single Simulation.
+     */
+    public long now() {
+        long now = 0;
+        for (Simulation partition : partitions) now = Math.max(now, partition.now());
+        return now;
+    }
+
+    public long getEventCount() {
+        long count = 0;
+        for (Simulation partition : partitions) count += partition.getEventCount();
+        return count;
+    }
+
+    public void run() {
+        runUntil(Long.MAX_VALUE);
+    }
+
+    public void runFor(long duration, TimeUnit unit) {
+        runUntil(now() + unit.toNanos(duration));
+    }
+
+    /*
+     * Run every event due at or before the given virtual time in every
+     * partition, and then move all the clocks on to that time.
+     */
+    public void runUntil(final long time) {
+
+        final int threads = Math.min(parallelism, partitions.size());
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        final CyclicBarrier barrier = new CyclicBarrier(threads, new Runnable() {
+            public void run() {
+                nextWindow(time);
+            }
+        });
+        nextWindow(time);
+
+        List<Thread> started = new ArrayList<Thread>();
+        for (int t = 1; t < threads; t++) {
+            final int first = t;
+            Thread thread = new Thread("simulation-partitions-" + t) {
+                public void run() {
+                    runWindows(first, threads, barrier, failure);
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+            started.add(thread);
+        }
+        runWindows(0, threads, barrier, failure);
+
+        for (Thread thread : started) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        Throwable cause = failure.get();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        if (cause != null) throw new IllegalStateException("A partition failed", cause);
+
+        // Nothing is left before the end time, so this only moves the clocks on.
+        long end = time != Long.MAX_VALUE ? time : now();
+        for (Simulation partition : partitions) partition.runUntil(end);
+
+    }
+
+    /*Run this thread's share of the partitions, partition i going to thread i % threads*/
+    private void runWindows(int first, int threads, CyclicBarrier barrier, AtomicReference<Throwable> failure) {
+
+        try {
+            while (!finished) {
+                long end = windowEnd;
+                for (int i = first; i < partitions.size(); i += threads) {
+                    partitions.get(i).runEvents(end);
+                }
+                barrier.await();
+            }
+
+        } catch (BrokenBarrierException e) {
+            // Another thread failed and has recorded why.
+
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+            barrier.reset();
+        }
+
+    }
+
+    /*
+     * Hand over the posted events and choose the next window, which
+     * starts at the earliest event of any partition. Run by the last
+     * thread to reach the barrier, while the others wait.
+     */
+    private void nextWindow(long time) {
+
+        long next = Long.MAX_VALUE;
+        for (Simulation partition : partitions) {
+            partition.deliverPosted();
+            next = Math.min(next, partition.nextEventTime());
+        }
+
+        if (next == Long.MAX_VALUE || next > time) {
+            finished = true;
+            return;
+        }
+
+        // The window includes every event before next + lookahead.
+        finished = false;
+        windowEnd = next > time - lookaheadNanos + 1 ? time : next + lookaheadNanos - 1;
+
+    }
+
+}
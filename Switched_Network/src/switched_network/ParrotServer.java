@@ -34,25 +34,19 @@ public class ParrotServer extends Application {
         // Print out application information using the default application.
         super.run();
 
-        while (true) {
+        while (!isStopped()) {
 
-            try {
-                sleep(100);
-            } catch (InterruptedException except) {
-                // Ignore.
-            }
-
-            // This checks whether there is a message to receive on this port.
+            // This waits for a message to arrive on this port.
             byte[] message = getComputerOS().recv(listenPort);
 
-            // If messages exists then print it out.
-            if (message != null) {
-
-                String msgString = new String(message);
-                System.out.println("Computer " + getComputerOS().getHostname() + " received message: " + msgString + "\n");
-                
+            // Only happens if the server has been stopped (interrupted).
+            if (message == null) {
+                break;
             }
 
+            String msgString = new String(message);
+            System.out.println("Computer " + getComputerOS().getHostname() + " received message: " + msgString + "\n");
+
         }
 
     }
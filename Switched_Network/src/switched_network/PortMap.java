@@ -0,0 +1,88 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *
+ * A thread safe map from a 16 bit port number to a value, stored as
+ * a two level array so that looking up a port never boxes the port
+ * number or allocates. Pages of 256 ports are created on first use.
+ *
+ */
+public class PortMap<V> {
+
+    private final static int PAGE_BITS = 8;
+    private final static int PAGE_SIZE = 1 << PAGE_BITS;
+    private final static int PORTS = 65536;
+
+    private final AtomicReferenceArray<AtomicReferenceArray<V>> pages =
+            new AtomicReferenceArray<AtomicReferenceArray<V>>(PORTS / PAGE_SIZE);
+
+
+    /*
+     * The value for the port, or null if it has none.
+     * A number outside 0-65535 never has a value.
+     */
+    public V get(int port) {
+        if (port < 0 || port >= PORTS) return null;
+
+        AtomicReferenceArray<V> page = pages.get(pageOf(port));
+        return page == null ? null : page.get(port & (PAGE_SIZE - 1));
+    }
+
+    public void put(int port, V value) {
+        page(port).set(port & (PAGE_SIZE - 1), value);
+    }
+
+    /*
+     * Store the value unless the port already has one.
+     * Returns the existing value, or null if the value was stored.
+     */
+    public V putIfAbsent(int port, V value) {
+        AtomicReferenceArray<V> page = page(port);
+        int index = port & (PAGE_SIZE - 1);
+
+        if (page.compareAndSet(index, null, value)) return null;
+        return page.get(index);
+    }
+
+    /*
+     * A snapshot of all the values in port order.
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<V>();
+        for (int p = 0; p < pages.length(); p++) {
+            AtomicReferenceArray<V> page = pages.get(p);
+            if (page == null) continue;
+
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                V value = page.get(i);
+                if (value != null) values.add(value);
+            }
+        }
+        return values;
+    }
+
+    private AtomicReferenceArray<V> page(int port) {
+        int p = pageOf(port);
+        AtomicReferenceArray<V> page = pages.get(p);
+        if (page != null) return page;
+
+        pages.compareAndSet(p, null, new AtomicReferenceArray<V>(PAGE_SIZE));
+        return pages.get(p);
+    }
+
+    private static int pageOf(int port) {
+        if (port < 0 || port >= PORTS) {
+            throw new IllegalArgumentException("Port number out of range: " + port);
+        }
+        return port >>> PAGE_BITS;
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Counts the traffic through one SwitchPort. "In" is traffic from the
+ * attached computer into the switch, "out" is traffic from the switch
+ * to the computer.
+ *
+ */
+public class PortMetrics implements PortMetricsMBean, Metrics {
+
+    private final SwitchPort port;
+
+    private final AtomicLong packetsIn = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong packetsOut = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong egressDropped = new AtomicLong();
+    private final AtomicLong policed = new AtomicLong();
+    private final AtomicLong deliveryErrors = new AtomicLong();
+
+
+    PortMetrics(SwitchPort port) {
+        this.port = port;
+    }
+
+    /*
+     * The lengths are passed in because a packet may be recycled
+     * as soon as it has been handed on.
+     */
+    void packetIn(int length) {
+        packetsIn.incrementAndGet();
+        bytesIn.addAndGet(length);
+    }
+
+    void packetOut(int length) {
+        packetsOut.incrementAndGet();
+        bytesOut.addAndGet(length);
+    }
+
+    void packetDropped() {
+        dropped.incrementAndGet();
+    }
+
+    void packetDroppedAtEgress() {
+        egressDropped.incrementAndGet();
+    }
+
+    void packetPoliced() {
+        policed.incrementAndGet();
+    }
+
+    /*
+     * The computer threw while being handed a packet.
+     */
+    void deliveryFailed() {
+        deliveryErrors.incrementAndGet();
+    }
+
+    public long getPacketsIn() {
+        return packetsIn.get();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getPacketsOut() {
+        return packetsOut.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    public long getDroppedPackets() {
+        return dropped.get();
+    }
+
+    public int getQueueLength() {
+        return port.getQueueLength();
+    }
+
+    public int getEgressQueueLength() {
+        return port.getEgressQueueLength();
+    }
+
+    public long getEgressDroppedPackets() {
+        return egressDropped.get();
+    }
+
+    public int getEgressQueueBytes() {
+        return port.getEgressQueueBytes();
+    }
+
+    public long getPolicedPackets() {
+        return policed.get();
+    }
+
+    public long getDeliveryErrors() {
+        return deliveryErrors.get();
+    }
+
+    public void snapshot(String prefix, Map<String, Long> into) {
+        into.put(prefix + ".packetsIn", getPacketsIn());
+        into.put(prefix + ".bytesIn", getBytesIn());
+        into.put(prefix + ".packetsOut", getPacketsOut());
+        into.put(prefix + ".bytesOut", getBytesOut());
+        into.put(prefix + ".dropped", getDroppedPackets());
+        into.put(prefix + ".queueLength", (long) getQueueLength());
+        into.put(prefix + ".egressQueueLength", (long) getEgressQueueLength());
+        into.put(prefix + ".egressDropped", getEgressDroppedPackets());
+        into.put(prefix + ".egressQueueBytes", (long) getEgressQueueBytes());
+        into.put(prefix + ".policed", getPolicedPackets());
+        into.put(prefix + ".deliveryErrors", getDeliveryErrors());
+    }
+
+}
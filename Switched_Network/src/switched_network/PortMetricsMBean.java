@@ -0,0 +1,36 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+/**
+ *
+ * JMX view of the traffic through one SwitchPort.
+ *
+ */
+public interface PortMetricsMBean {
+
+    public long getPacketsIn();
+
+    public long getBytesIn();
+
+    public long getPacketsOut();
+
+    public long getBytesOut();
+
+    public long getDroppedPackets();
+
+    public int getQueueLength();
+
+    public int getEgressQueueLength();
+
+    public long getEgressDroppedPackets();
+
+    public int getEgressQueueBytes();
+
+    public long getPolicedPackets();
+
+    public long getDeliveryErrors();
+
+}
@@ -0,0 +1,222 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ *
+ * Puts the fragments of the messages arriving at a Computer back
+ * together. The fragments themselves are kept, sorted by offset, and
+ * the whole message is a packet made of them (see Packet.forMessage()),
+ * so no buffer the size of the message is allocated and each byte is
+ * only copied when the application takes the message.
+ *
+ * The fragments held for incomplete messages may take up at most a
+ * budget of bytes between them. A fragment which does not fit makes
+ * the oldest other messages be given up, but a message which is the
+ * only one being reassembled may go over the budget, so that any
+ * message can be received. Messages longer than a separate limit per
+ * message are refused (and counted) instead. A message which has
+ * waited longer than the timeout for its remaining fragments is given
+ * up too, as are fragments which repeat or overlap ones already held.
+ *
+ */
+class Reassembler {
+
+    // No limit on the length of a single message.
+    public final static int UNLIMITED = Integer.MAX_VALUE;
+
+    // A message waiting for more fragments.
+    private static class Partial {
+        final long key;
+        final int messageLength;
+        final long started;
+        Packet[] fragments = new Packet[4];
+        int count = 0;
+        int received = 0;
+
+        Partial(long key, int messageLength, long started) {
+            this.key = key;
+            this.messageLength = messageLength;
+            this.started = started;
+        }
+
+        /*
+         * Add the fragment in offset order, or return false if it
+         * overlaps one already held.
+         */
+        boolean insert(Packet fragment) {
+            int offset = fragment.getFragmentOffset();
+            int end = offset + fragment.getPayloadLength();
+
+            // Fragments usually arrive in order, so search from the end.
+            int at = count;
+            while (at > 0 && fragments[at - 1].getFragmentOffset() > offset) at--;
+
+            if (at > 0 && endOf(fragments[at - 1]) > offset) return false;
+            if (at < count && fragments[at].getFragmentOffset() < end) return false;
+
+            if (count == fragments.length) {
+                Packet[] grown = new Packet[count * 2];
+                System.arraycopy(fragments, 0, grown, 0, count);
+                fragments = grown;
+            }
+            System.arraycopy(fragments, at, fragments, at + 1, count - at);
+            fragments[at] = fragment;
+            count++;
+            received += end - offset;
+            return true;
+        }
+
+        void release() {
+            for (int i = 0; i < count; i++) fragments[i].release();
+        }
+
+        private static int endOf(Packet fragment) {
+            return fragment.getFragmentOffset() + fragment.getPayloadLength();
+        }
+    }
+
+    private final LinkedHashMap<Long, Partial> partials = new LinkedHashMap<Long, Partial>();
+
+    // The message the last fragment belonged to, which the next one usually does too.
+    private Partial last = null;
+
+    private int maxBytes;
+    private int maxMessageBytes;
+    private long timeoutNanos;
+    private long pendingBytes = 0;
+    private long failures = 0;
+    private long oversize = 0;
+
+
+    Reassembler(int maxBytes, int maxMessageBytes, long timeoutNanos) {
+
+        configure(maxBytes, maxMessageBytes, timeoutNanos);
+
+    }
+
+    synchronized void configure(int maxBytes, int maxMessageBytes, long timeoutNanos) {
+
+        this.maxBytes = maxBytes;
+        this.maxMessageBytes = maxMessageBytes;
+        this.timeoutNanos = timeoutNanos;
+
+    }
+
+    /*
+     * Take a fragment which arrived at the given time, returning its
+     * whole message if this was the last fragment missing, otherwise
+     * null. The fragment is kept as part of its message, or released
+     * if it cannot be used.
+     */
+    synchronized Packet add(Packet fragment, long now) {
+
+        int messageLength = fragment.getMessageLength();
+        int offset = fragment.getFragmentOffset();
+        int n = fragment.getPayloadLength();
+
+        // A fragment which does not fit its own message.
+        if (n == 0 || offset < 0 || offset > messageLength - n) {
+            failures++;
+            fragment.release();
+            return null;
+        }
+
+        // Counted once per message, by its first fragment.
+        if (messageLength > maxMessageBytes) {
+            if (offset == 0) oversize++;
+            fragment.release();
+            return null;
+        }
+
+        long key = keyOf(fragment);
+        Partial partial = find(key);
+
+        if (partial == null) {
+            expire(now);
+            partial = new Partial(key, messageLength, now);
+            partials.put(key, partial);
+        }
+        last = partial;
+
+        if (messageLength != partial.messageLength || !partial.insert(fragment)) {
+            failures++;
+            fragment.release();
+            return null;
+        }
+        pendingBytes += n;
+        makeRoom(partial);
+
+        if (partial.received < messageLength) return null;
+
+        partials.remove(key);
+        pendingBytes -= partial.received;
+        last = null;
+        return Packet.forMessage(partial.fragments, partial.count);
+
+    }
+
+    /*
+     * Bytes of the fragments held for messages waiting for more.
+     */
+    synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /*
+     * Number of messages given up and fragments which could not be used.
+     */
+    synchronized long getFailures() {
+        return failures;
+    }
+
+    /*
+     * Number of messages refused for being longer than the limit per message.
+     */
+    synchronized long getOversizeMessages() {
+        return oversize;
+    }
+
+    /*Message ids are chosen by each sender, so the source is part of the key*/
+    private static long keyOf(Packet fragment) {
+        return (long) fragment.getSourceAddress() << 32 | fragment.getMessageId() & 0xFFFFFFFFL;
+    }
+
+    private Partial find(long key) {
+        return last != null && last.key == key ? last : partials.get(key);
+    }
+
+    /*Give up the messages which have waited too long, oldest first*/
+    private void expire(long now) {
+        Iterator<Partial> oldest = partials.values().iterator();
+        while (oldest.hasNext()) {
+            Partial partial = oldest.next();
+            if (now - partial.started <= timeoutNanos) return;
+            giveUp(oldest, partial);
+        }
+    }
+
+    /*Give up the oldest messages other than the one growing until the budget is kept*/
+    private void makeRoom(Partial growing) {
+        Iterator<Partial> oldest = partials.values().iterator();
+        while (pendingBytes > maxBytes && oldest.hasNext()) {
+            Partial partial = oldest.next();
+            if (partial != growing) giveUp(oldest, partial);
+        }
+    }
+
+    /*Remove the partial message the iterator is on*/
+    private void giveUp(Iterator<Partial> at, Partial partial) {
+        at.remove();
+        pendingBytes -= partial.received;
+        failures++;
+        partial.release();
+        if (partial == last) last = null;
+    }
+
+}
@@ -0,0 +1,437 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * A discrete event simulation with a virtual clock, so that a network
+ * runs as fast as the CPU allows rather than in real time, and runs
+ * the same way every time.
+ *
+ * Events are kept in time order (events at the same time in the order
+ * they were scheduled) and run one after another, the clock jumping
+ * to the time of each event. Switches created with a Simulation
+ * forward packets as events, and computers connected to them sleep
+ * and wait for messages in virtual time.
+ *
+ * Applications started with getLauncher() still run their own code on
+ * their own threads, but only one application or event runs at any
+ * moment: an application runs until it sleeps or waits for a message,
+ * and then hands control back to the simulation until the event which
+ * wakes it. Applications must therefore only wait through their
+ * ComputerOS (sleep(), recv()), never on real locks or other threads.
+ *
+ * Virtual time is in nanoseconds and starts at zero.
+ *
+ * A Simulation can also be one partition of a ParallelSimulation, in
+ * which case events for the other partitions are posted to them with
+ * at least the lookahead delay, rather than scheduled directly.
+ *
+ */
+public class Simulation {
+
+    private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+    private long sequence = 0;
+    private volatile long now = 0;
+    private long eventCount = 0;
+
+    // Released by a process when it hands control back to the simulation.
+    private final Semaphore yielded = new Semaphore(0);
+
+    // Processes waiting for a signal, by what they are waiting on.
+    private final Map<Object, List<Waiter>> waiting = new IdentityHashMap<Object, List<Waiter>>();
+
+    // Set when the simulation is a partition of a ParallelSimulation.
+    private ParallelSimulation parallel = null;
+    private int partition = 0;
+    private long posted = 0;
+    private final List<Posted> inbox = new ArrayList<Posted>();
+
+    private final ApplicationLauncher launcher = new ApplicationLauncher(new Executor() {
+        public void execute(Runnable task) {
+            startProcess(task);
+        }
+    });
+
+
+    /*
+     * The current virtual time in nanoseconds.
+     */
+    public long now() {
+        return now;
+    }
+
+    /*
+     * Number of events run so far.
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /*
+     * Launches applications as processes of this simulation.
+     */
+    public ApplicationLauncher getLauncher() {
+        return launcher;
+    }
+
+    /*
+     * Run the action after the given virtual delay.
+     */
+    public void schedule(long delay, TimeUnit unit, Runnable action) {
+        scheduleAt(now + unit.toNanos(delay), action);
+    }
+
+    synchronized void scheduleAt(long time, Runnable action) {
+        if (time < now) throw new IllegalArgumentException("Cannot schedule an event in the past: " + time);
+        events.add(new Event(time, sequence++, action));
+    }
+
+    /*
+     * Post an event to another partition of the same ParallelSimulation,
+     * to run at the given time of its clock. The time must be at least
+     * the lookahead after now, and the event runs after the current
+     * window of the parallel simulation.
+     *
+     * Must be called by this simulation's own events or applications.
+     */
+    public void post(Simulation to, long time, Runnable action) {
+
+        if (parallel == null || to.parallel != parallel) {
+            throw new IllegalArgumentException("Events can only be posted between partitions of a ParallelSimulation");
+        }
+        if (time - now < parallel.getLookahead()) {
+            throw new IllegalArgumentException("An event for another partition must be at least the lookahead ahead");
+        }
+
+        Posted event = new Posted(time, partition, posted++, action);
+        synchronized (to.inbox) {
+            to.inbox.add(event);
+        }
+
+    }
+
+    /*
+     * Used by the ParallelSimulation between windows to schedule the
+     * events posted by other partitions, in an order which does not
+     * depend on how the partitions' threads happened to run.
+     */
+    void deliverPosted() {
+
+        List<Posted> arrived;
+        synchronized (inbox) {
+            if (inbox.isEmpty()) return;
+            arrived = new ArrayList<Posted>(inbox);
+            inbox.clear();
+        }
+
+        Collections.sort(arrived);
+        for (Posted event : arrived) scheduleAt(event.time, event.action);
+
+    }
+
+    /*
+     * Time of the next event, or Long.MAX_VALUE if there is none.
+     */
+    synchronized long nextEventTime() {
+        Event event = events.peek();
+        return event == null ? Long.MAX_VALUE : event.time;
+    }
+
+    void setPartition(ParallelSimulation parallel, int partition) {
+        this.parallel = parallel;
+        this.partition = partition;
+    }
+
+    /*
+     * Run events until there are none left.
+     */
+    public void run() {
+        runUntil(Long.MAX_VALUE);
+    }
+
+    /*
+     * Run the events of the next period of virtual time.
+     */
+    public void runFor(long duration, TimeUnit unit) {
+        runUntil(now + unit.toNanos(duration));
+    }
+
+    /*
+     * Run every event due at or before the given virtual time, and
+     * then move the clock on to that time. Must not be called by an
+     * application of the simulation.
+     */
+    public void runUntil(long time) {
+
+        runEvents(time);
+        if (time != Long.MAX_VALUE && time > now) now = time;
+
+    }
+
+    /*
+     * Run every event due at or before the given virtual time, leaving
+     * the clock at the last of them. The ParallelSimulation runs its
+     * windows with this, so that a partition's clock (like that of a
+     * Simulation) only ever shows the time of an event.
+     */
+    void runEvents(long time) {
+
+        if (currentProcess() != null) {
+            throw new IllegalStateException("A simulated application cannot run the simulation");
+        }
+
+        while (true) {
+            Event event;
+            synchronized (this) {
+                event = events.peek();
+                if (event == null || event.time > time) break;
+                events.poll();
+            }
+
+            now = event.time;
+            eventCount++;
+            event.action.run();
+        }
+
+    }
+
+
+    /*
+     * Used by a simulated computer to pause the calling application
+     * for the given virtual time.
+     */
+    void sleep(long nanos) throws InterruptedException {
+
+        Process process = checkProcess();
+        if (Thread.interrupted()) throw new InterruptedException();
+
+        scheduleAt(now + Math.max(0, nanos), new Resume(process, process.token));
+        process.park();
+
+        if (Thread.interrupted()) throw new InterruptedException();
+
+    }
+
+    /*
+     * Used by a simulated computer to wait until signal() is called
+     * for the key, or for at most the timeout (if not negative). The
+     * caller must check again for whatever it was waiting for.
+     */
+    void await(Object key, long timeoutNanos) throws InterruptedException {
+
+        Process process = checkProcess();
+        if (Thread.interrupted()) throw new InterruptedException();
+
+        Waiter waiter = new Waiter(process, process.token);
+        synchronized (this) {
+            List<Waiter> list = waiting.get(key);
+            if (list == null) {
+                list = new ArrayList<Waiter>();
+                waiting.put(key, list);
+            }
+            list.add(waiter);
+        }
+        if (timeoutNanos >= 0) scheduleAt(now + timeoutNanos, new Resume(process, process.token));
+
+        process.park();
+
+        synchronized (this) {
+            // Still there if woken by the timeout or an interrupt.
+            List<Waiter> list = waiting.get(key);
+            if (list != null && list.remove(waiter) && list.isEmpty()) waiting.remove(key);
+        }
+
+        if (Thread.interrupted()) throw new InterruptedException();
+
+    }
+
+    /*
+     * Wake every application waiting on the key, at the current time.
+     */
+    void signal(Object key) {
+
+        List<Waiter> list;
+        synchronized (this) {
+            list = waiting.remove(key);
+        }
+        if (list == null) return;
+
+        for (Waiter waiter : list) scheduleAt(now, new Resume(waiter.process, waiter.token));
+
+    }
+
+    /*
+     * Whether the calling thread is an application of this simulation.
+     */
+    boolean isProcess() {
+        return currentProcess() != null;
+    }
+
+    private void startProcess(Runnable task) {
+
+        Process process = new Process(task);
+        process.setDaemon(true);
+        process.start();
+        scheduleAt(now, new Resume(process, process.token));
+
+    }
+
+    private Process currentProcess() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Process && ((Process) thread).getSimulation() == this) return (Process) thread;
+        return null;
+    }
+
+    private Process checkProcess() {
+        Process process = currentProcess();
+        if (process == null) {
+            throw new IllegalStateException("Only an application of the simulation can wait in virtual time");
+        }
+        return process;
+    }
+
+
+    /*
+     * The thread of a simulated application.
+     */
+    private final class Process extends Thread {
+
+        private final Runnable task;
+        private final Semaphore resume = new Semaphore(0);
+
+        // Changes every time the process is resumed, so that any other
+        // event which would have resumed it from the same wait is ignored.
+        private long token = 0;
+        private boolean finished = false;
+
+        Process(Runnable task) {
+            super("simulated-application");
+            this.task = task;
+        }
+
+        Simulation getSimulation() {
+            return Simulation.this;
+        }
+
+        public void run() {
+            resume.acquireUninterruptibly();
+            try {
+                task.run();
+            } finally {
+                finished = true;
+                yielded.release();
+            }
+        }
+
+        /*Hand control back to the simulation until resumed*/
+        void park() {
+            yielded.release();
+            resume.acquireUninterruptibly();
+        }
+
+        /*
+         * Wake the process straight away so that it sees the interrupt,
+         * e.g. when Application.stop() is called.
+         */
+        public void interrupt() {
+            super.interrupt();
+            scheduleAt(now, new Resume(this, token));
+        }
+
+    }
+
+    /*
+     * The event which lets a process carry on, running it until it
+     * waits again or finishes.
+     */
+    private final class Resume implements Runnable {
+
+        private final Process process;
+        private final long token;
+
+        Resume(Process process, long token) {
+            this.process = process;
+            this.token = token;
+        }
+
+        public void run() {
+            if (process.finished || process.token != token) return;
+
+            process.token++;
+            process.resume.release();
+            yielded.acquireUninterruptibly();
+        }
+
+    }
+
+    private static final class Waiter {
+
+        final Process process;
+        final long token;
+
+        Waiter(Process process, long token) {
+            this.process = process;
+            this.token = token;
+        }
+
+    }
+
+    /*
+     * An event posted by another partition, ordered by time, then
+     * by the partition which posted it, then by the order it did.
+     */
+    private static final class Posted implements Comparable<Posted> {
+
+        final long time;
+        final int partition;
+        final long sequence;
+        final Runnable action;
+
+        Posted(long time, int partition, long sequence, Runnable action) {
+            this.time = time;
+            this.partition = partition;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        public int compareTo(Posted other) {
+            if (time != other.time) return time < other.time ? -1 : 1;
+            if (partition != other.partition) return partition < other.partition ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+
+    }
+
+    private static final class Event implements Comparable<Event> {
+
+        final long time;
+        final long sequence;
+        final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        public int compareTo(Event other) {
+            if (time != other.time) return time < other.time ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+
+    }
+
+}
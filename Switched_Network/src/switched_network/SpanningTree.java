@@ -0,0 +1,103 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ *
+ * Breaks the loops in a set of trunk links by blocking just enough
+ * of them that there is exactly one path between any two connected
+ * switches, in the way the IEEE spanning tree protocol would settle.
+ *
+ * The tree is worked out centrally rather than by exchanging BPDUs:
+ * the switch with the lowest bridge priority (then bridge ID) is the
+ * root, and the tree is grown breadth first from it so every switch
+ * reaches the root over the fewest trunks. Trunks not in the tree
+ * are blocked.
+ *
+ */
+public class SpanningTree {
+
+    private SpanningTree() { }
+
+    /*
+     * Block or unblock each of the links. Switches which are not
+     * connected to each other get a tree each. Returns the number
+     * of links blocked.
+     */
+    public static int configure(Collection<TrunkLink> links) {
+
+        Map<NetworkSwitch, List<TrunkLink>> adjacent = new IdentityHashMap<NetworkSwitch, List<TrunkLink>>();
+        for (TrunkLink link : links) {
+            neighbours(adjacent, link.getSwitchA()).add(link);
+            neighbours(adjacent, link.getSwitchB()).add(link);
+        }
+
+        List<NetworkSwitch> switches = new ArrayList<NetworkSwitch>(adjacent.keySet());
+        Collections.sort(switches, new Comparator<NetworkSwitch>() {
+            public int compare(NetworkSwitch a, NetworkSwitch b) {
+                if (a.getBridgePriority() != b.getBridgePriority()) {
+                    return a.getBridgePriority() < b.getBridgePriority() ? -1 : 1;
+                }
+                if (a.getBridgeId() != b.getBridgeId()) {
+                    return a.getBridgeId() < b.getBridgeId() ? -1 : 1;
+                }
+                return a.getName().compareTo(b.getName());
+            }
+        });
+
+        Map<TrunkLink, Boolean> inTree = new IdentityHashMap<TrunkLink, Boolean>();
+        Map<NetworkSwitch, Boolean> reached = new IdentityHashMap<NetworkSwitch, Boolean>();
+        Queue<NetworkSwitch> queue = new ArrayDeque<NetworkSwitch>();
+
+        // The first unreached switch in priority order is the root of its tree.
+        for (NetworkSwitch root : switches) {
+            if (reached.containsKey(root)) continue;
+
+            reached.put(root, Boolean.TRUE);
+            queue.add(root);
+
+            while (!queue.isEmpty()) {
+                NetworkSwitch current = queue.poll();
+                for (TrunkLink link : adjacent.get(current)) {
+                    NetworkSwitch other = link.getSwitchA() == current ? link.getSwitchB() : link.getSwitchA();
+                    if (reached.containsKey(other)) continue;
+
+                    reached.put(other, Boolean.TRUE);
+                    inTree.put(link, Boolean.TRUE);
+                    queue.add(other);
+                }
+            }
+        }
+
+        int blocked = 0;
+        for (TrunkLink link : links) {
+            boolean block = !inTree.containsKey(link);
+            link.setBlocked(block);
+            if (block) blocked++;
+        }
+        return blocked;
+
+    }
+
+    private static List<TrunkLink> neighbours(Map<NetworkSwitch, List<TrunkLink>> adjacent, NetworkSwitch networkSwitch) {
+        List<TrunkLink> list = adjacent.get(networkSwitch);
+        if (list == null) {
+            list = new ArrayList<TrunkLink>();
+            adjacent.put(networkSwitch, list);
+        }
+        return list;
+    }
+
+}
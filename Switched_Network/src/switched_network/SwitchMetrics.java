@@ -0,0 +1,124 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.Map;
+
+/**
+ *
+ * Totals over all the ports of a NetworkSwitch together with the
+ * switch's own counters. The per-port counters are in PortMetrics.
+ *
+ */
+public class SwitchMetrics implements SwitchMetricsMBean, Metrics {
+
+    private final NetworkSwitch networkSwitch;
+
+
+    SwitchMetrics(NetworkSwitch networkSwitch) {
+        this.networkSwitch = networkSwitch;
+    }
+
+    public long getPacketsIn() {
+        long total = 0;
+        for (int i = 0; i < networkSwitch.getNumberPorts(); i++) total += port(i).getPacketsIn();
+        return total;
+    }
+
+    public long getBytesIn() {
+        long total = 0;
+        for (int i = 0; i < networkSwitch.getNumberPorts(); i++) total += port(i).getBytesIn();
+        return total;
+    }
+
+    public long getPacketsOut() {
+        long total = 0;
+        for (int i = 0; i < networkSwitch.getNumberPorts(); i++) total += port(i).getPacketsOut();
+        return total;
+    }
+
+    public long getBytesOut() {
+        long total = 0;
+        for (int i = 0; i < networkSwitch.getNumberPorts(); i++) total += port(i).getBytesOut();
+        return total;
+    }
+
+    public long getDroppedPackets() {
+        long total = 0;
+        for (int i = 0; i < networkSwitch.getNumberPorts(); i++) total += port(i).getDroppedPackets();
+        return total;
+    }
+
+    public int getQueueLength() {
+        int total = 0;
+        for (int i = 0; i < networkSwitch.getNumberPorts(); i++) total += port(i).getQueueLength();
+        return total;
+    }
+
+    public long getEgressDroppedPackets() {
+        long total = 0;
+        for (int i = 0; i < networkSwitch.getNumberPorts(); i++) total += port(i).getEgressDroppedPackets();
+        return total;
+    }
+
+    public long getPolicedPackets() {
+        long total = 0;
+        for (int i = 0; i < networkSwitch.getNumberPorts(); i++) total += port(i).getPolicedPackets();
+        return total;
+    }
+
+    public long getDeliveryErrors() {
+        long total = 0;
+        for (int i = 0; i < networkSwitch.getNumberPorts(); i++) total += port(i).getDeliveryErrors();
+        return total;
+    }
+
+    public long getUnknownFlooded() {
+        return networkSwitch.getUnknownDestinationCount(NetworkSwitch.UnknownDestinationPolicy.FLOOD);
+    }
+
+    public long getUnknownDropped() {
+        return networkSwitch.getUnknownDestinationCount(NetworkSwitch.UnknownDestinationPolicy.DROP);
+    }
+
+    public long getUnknownToUplink() {
+        return networkSwitch.getUnknownDestinationCount(NetworkSwitch.UnknownDestinationPolicy.UPLINK);
+    }
+
+    public long getForwardingErrors() {
+        return networkSwitch.getForwardingErrors();
+    }
+
+    public long getBroadcasts() {
+        return networkSwitch.getBroadcastCount();
+    }
+
+    public long getMulticasts() {
+        return networkSwitch.getMulticastCount();
+    }
+
+    public void snapshot(String prefix, Map<String, Long> into) {
+        into.put(prefix + ".packetsIn", getPacketsIn());
+        into.put(prefix + ".bytesIn", getBytesIn());
+        into.put(prefix + ".packetsOut", getPacketsOut());
+        into.put(prefix + ".bytesOut", getBytesOut());
+        into.put(prefix + ".dropped", getDroppedPackets());
+        into.put(prefix + ".queueLength", (long) getQueueLength());
+        into.put(prefix + ".egressDropped", getEgressDroppedPackets());
+        into.put(prefix + ".policed", getPolicedPackets());
+        into.put(prefix + ".deliveryErrors", getDeliveryErrors());
+        into.put(prefix + ".unknownFlooded", getUnknownFlooded());
+        into.put(prefix + ".unknownDropped", getUnknownDropped());
+        into.put(prefix + ".unknownToUplink", getUnknownToUplink());
+        into.put(prefix + ".forwardingErrors", getForwardingErrors());
+        into.put(prefix + ".broadcasts", getBroadcasts());
+        into.put(prefix + ".multicasts", getMulticasts());
+    }
+
+    private PortMetrics port(int number) {
+        return networkSwitch.getPort(number).getMetrics();
+    }
+
+}
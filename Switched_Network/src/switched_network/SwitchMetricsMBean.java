@@ -0,0 +1,44 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+/**
+ *
+ * JMX view of the traffic through a whole NetworkSwitch.
+ *
+ */
+public interface SwitchMetricsMBean {
+
+    public long getPacketsIn();
+
+    public long getBytesIn();
+
+    public long getPacketsOut();
+
+    public long getBytesOut();
+
+    public long getDroppedPackets();
+
+    public int getQueueLength();
+
+    public long getEgressDroppedPackets();
+
+    public long getPolicedPackets();
+
+    public long getDeliveryErrors();
+
+    public long getUnknownFlooded();
+
+    public long getUnknownDropped();
+
+    public long getUnknownToUplink();
+
+    public long getForwardingErrors();
+
+    public long getBroadcasts();
+
+    public long getMulticasts();
+
+}
@@ -5,9 +5,12 @@
 package switched_network;
 
 import java.net.InetAddress;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  *
@@ -23,26 +26,319 @@ import java.util.concurrent.locks.ReentrantLock;
 public class SwitchPort {
 
     private final int portNumber;
-    private NetworkCard connectedNetworkCard = null;
-    private InetAddress ipAddress = null;
+    private final NetworkSwitch networkSwitch;
+    private volatile NetworkCard connectedNetworkCard = null;
+    private volatile InetAddress ipAddress = null;
+    private volatile boolean blocked = false;
     
-    private byte[] packet;
-    private Lock lock = new ReentrantLock();
-    private Condition inTransit = lock.newCondition();
+    public final static int DEFAULT_QUEUE_CAPACITY = 64;
+
+    // How long a simulated sender waits before trying a full ring again.
+    private final static long BLOCK_BACKOFF_NANOS = 10000;
+    // Longest a blocked sender parks if the switch does not wake it.
+    private final static long BLOCK_PARK_NANOS = 1000000;
+    
+    // Packets sent by the computer, waiting for the switch to forward them.
+    private volatile LockFreeRing<Packet> ingress;
+    // Senders parked until the switch takes a packet from the full ring.
+    private final ConcurrentLinkedQueue<Thread> blockedSenders = new ConcurrentLinkedQueue<Thread>();
+    private volatile OverflowPolicy policy;
+    private final PortMetrics metrics = new PortMetrics(this);
+
+    // Null if arriving packets are not policed.
+    private volatile TokenBucket policer = null;
+
+    public final static int DEFAULT_EGRESS_BUFFER_BYTES = 256 * 1024;
+
+    // Null if packets are delivered instantly.
+    private volatile LinkModel link = null;
+
+    public final static int DEFAULT_EGRESS_QUEUE_CAPACITY = 256;
+    public final static int DEFAULT_CLASS_WEIGHT = 1;
+    public final static int MAX_CLASS_WEIGHT = 1000;
+
+    // Weight of each traffic class (see Packet), 0 for strict priority. The schedulers have their own copies.
+    // Each class has an egress queue of its own and by default all classes share the port equally,
+    // unless e.g. control traffic is to go ahead of bulk transfers.
+    private final int[] classWeights = new int[Packet.TRAFFIC_CLASSES];
+
+    // Filled by the switch workers (and link timer), emptied by the drainer.
+    private volatile EgressScheduler egress;
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    // Packets the computer took but could not queue without waiting, handed back to the drainer.
+    private final ConcurrentLinkedQueue<Packet> returned = new ConcurrentLinkedQueue<Packet>();
+    private final Runnable drainer = new Runnable() {
+    	public void run() {
+    		drainEgress();
+    	}
+    };
 
     public SwitchPort(int number) {
+        this(number, null);
+    }
+
+    /*
+     * Create a port belonging to the given switch, which is
+     * woken up whenever a packet arrives on this port.
+     */
+    SwitchPort(int number, NetworkSwitch networkSwitch) {
         portNumber = number;
-        this.packet = null;
+        this.networkSwitch = networkSwitch;
+        this.ingress = new LockFreeRing<Packet>(DEFAULT_QUEUE_CAPACITY, LockFreeRing.Producers.MULTIPLE);
+        this.policy = OverflowPolicy.BLOCK;
+        Arrays.fill(classWeights, DEFAULT_CLASS_WEIGHT);
+        this.egress = new EgressScheduler(classWeights, DEFAULT_EGRESS_QUEUE_CAPACITY);
     }
     
     public int getNumber() {
     	return portNumber;
     }
+
+    /*
+     * Replace the ingress queue of this port with one of the given
+     * capacity (rounded up to a power of two) and overflow policy,
+     * which decides whether a computer sending to a full queue waits
+     * or has its packet dropped. Any queued packets are discarded, so
+     * this should be called before the switch is powered up.
+     */
+    public void configureIngressQueue(int capacity, OverflowPolicy policy) {
+    	configureIngressQueue(capacity, policy, LockFreeRing.Producers.MULTIPLE);
+    }
+
+    /*
+     * As above, also choosing whether more than one thread may send
+     * through the port. Producers.SINGLE uses a cheaper ring, but is
+     * only safe if a single application thread on the attached
+     * computer ever sends.
+     */
+    public void configureIngressQueue(int capacity, OverflowPolicy policy, LockFreeRing.Producers producers) {
+    	ingress = new LockFreeRing<Packet>(capacity, producers);
+    	this.policy = policy;
+    }
+
+    /*
+     * Replace the egress queues with ones of the given capacity (rounded
+     * up to a power of two) for each traffic class. Should be called
+     * before the switch is powered up, as any queued packets are lost.
+     */
+    public void configureEgressQueue(int capacity) {
+    	egress = new EgressScheduler(classWeights, capacity);
+    }
+
+    /*
+     * Number of packets waiting in the egress queues.
+     */
+    public int getEgressQueueLength() {
+    	return egress.size();
+    }
+
+    /*
+     * Number of packets of one traffic class waiting in the egress queue.
+     */
+    public int getEgressQueueLength(int trafficClass) {
+    	Packet.checkTrafficClass(trafficClass);
+    	return egress.size(trafficClass);
+    }
+
+    /*
+     * Always send packets of this traffic class ahead of the weighted
+     * classes, and of any lower strict priority class. Must be called
+     * before the switch is powered up.
+     */
+    public void setStrictPriority(int trafficClass) {
+    	Packet.checkTrafficClass(trafficClass);
+    	checkNotPoweredUp();
+    	classWeights[trafficClass] = 0;
+    	weightsChanged();
+    }
+
+    /*
+     * Share the bandwidth left over by the strict priority classes
+     * between the other classes in proportion to their weights.
+     * Must be called before the switch is powered up.
+     */
+    public void setClassWeight(int trafficClass, int weight) {
+    	Packet.checkTrafficClass(trafficClass);
+    	if (weight < 1 || weight > MAX_CLASS_WEIGHT) {
+    		throw new IllegalArgumentException("Class weight must be between 1 and " + MAX_CLASS_WEIGHT + ": " + weight);
+    	}
+    	checkNotPoweredUp();
+    	classWeights[trafficClass] = weight;
+    	weightsChanged();
+    }
+    
+    /*The schedulers read the weights without locking, so they are fixed once the switch runs*/
+    private void checkNotPoweredUp() {
+    	if (networkSwitch != null && networkSwitch.isPoweredUp()) {
+    		throw new IllegalStateException("Class weights cannot change once the switch is powered up");
+    	}
+    }
+    
+    /*Give the egress queues and the link new schedulers with a copy of the weights*/
+    private void weightsChanged() {
+    	egress = new EgressScheduler(classWeights, egress.getCapacity());
+    	
+    	LinkModel current = link;
+    	if (current != null) {
+    		link = new LinkModel(this, current.getBandwidth(), current.getPropagationDelay(TimeUnit.NANOSECONDS),
+    							 current.getBufferBytes(), classWeights);
+    	}
+    }
+
+    public boolean isStrictPriority(int trafficClass) {
+    	return classWeights[trafficClass] == 0;
+    }
+
+    /*
+     * Weight of a traffic class, 0 if it has strict priority.
+     */
+    public int getClassWeight(int trafficClass) {
+    	return classWeights[trafficClass];
+    }
+
+    /*
+     * Police the packets arriving on this port, dropping any beyond the
+     * rate in bits per second and the burst in bytes (see TokenBucket)
+     * before the switch spends any time forwarding them. A rate of 0
+     * stops policing.
+     */
+    public void setPolicer(long bitsPerSecond, int burstBytes) {
+    	policer = bitsPerSecond == 0 ? null : new TokenBucket(bitsPerSecond, burstBytes);
+    }
+
+    /*
+     * The policer of this port, or null if there is none.
+     */
+    public TokenBucket getPolicer() {
+    	return policer;
+    }
+
+    /*
+     * Used by the switch, with the time of its current scan, to check
+     * an arriving packet against the policer. Returns false, having
+     * counted and released the packet, if the packet is dropped.
+     */
+    boolean police(Packet packet, long now) {
+    	TokenBucket current = policer;
+    	if (current == null || current.tryConsume(packet.getLength(), now)) return true;
+    	
+    	metrics.packetPoliced();
+    	packet.release();
+    	return false;
+    }
+
+    /*
+     * Model the link from this port to the connected computer (or
+     * switch) with the given bandwidth in bits per second (0 for no
+     * limit) and propagation delay, and the default egress buffer
+     * (see LinkModel). Without a link, packets reach the computer as
+     * soon as they are forwarded.
+     */
+    public void configureLink(long bitsPerSecond, long propagationDelay, TimeUnit unit) {
+    	configureLink(bitsPerSecond, propagationDelay, unit, DEFAULT_EGRESS_BUFFER_BYTES);
+    }
+
+    /*
+     * As above with an egress buffer of the given number of bytes for each traffic class.
+     * A bandwidth and delay of zero delivers packets instantly again.
+     */
+    public void configureLink(long bitsPerSecond, long propagationDelay, TimeUnit unit, int bufferBytes) {
+    	if (bitsPerSecond < 0 || propagationDelay < 0 || bufferBytes < 1) {
+    		throw new IllegalArgumentException("Link bandwidth, delay and buffer must not be negative");
+    	}
+    	if (bitsPerSecond == 0 && propagationDelay == 0) {
+    		link = null;
+    	} else {
+    		link = new LinkModel(this, bitsPerSecond, unit.toNanos(propagationDelay), bufferBytes, classWeights);
+    	}
+    }
+
+    /*
+     * Bandwidth of the link in bits per second, 0 if unlimited.
+     */
+    public long getBandwidth() {
+    	LinkModel current = link;
+    	return current == null ? 0 : current.getBandwidth();
+    }
+
+    public long getPropagationDelay(TimeUnit unit) {
+    	LinkModel current = link;
+    	return current == null ? 0 : current.getPropagationDelay(unit);
+    }
+
+    /*
+     * Bytes waiting in the egress queue to be sent down the link.
+     */
+    public int getEgressQueueBytes() {
+    	LinkModel current = link;
+    	return current == null ? 0 : current.getQueuedBytes();
+    }
+
+    public int getQueueCapacity() {
+    	return ingress.capacity();
+    }
+
+    public int getQueueLength() {
+    	return ingress.size();
+    }
+
+    /*
+     * Number of packets dropped because the ingress queue was full.
+     */
+    public long getDroppedPackets() {
+    	return metrics.getDroppedPackets();
+    }
+
+    /*
+     * Packet, byte and drop counts for this port.
+     */
+    public PortMetrics getMetrics() {
+    	return metrics;
+    }
     
     public InetAddress getIPAddress() {
     	return ipAddress;
     }
 
+    public boolean isConnected() {
+    	return connectedNetworkCard != null;
+    }
+
+    /*
+     * The switch this port belongs to, or null for a standalone port.
+     */
+    public NetworkSwitch getSwitch() {
+    	return networkSwitch;
+    }
+
+    /*
+     * Stop (or restart) the switch forwarding packets to or from this
+     * port, e.g. to break a loop between switches. The switch forgets
+     * the addresses it has learned, as they may now be elsewhere.
+     */
+    public void setBlocked(boolean blocked) {
+    	if (this.blocked == blocked) return;
+    	
+    	this.blocked = blocked;
+    	if (networkSwitch != null) networkSwitch.forgetLearned();
+    }
+
+    public boolean isBlocked() {
+    	return blocked;
+    }
+
+    /*
+     * Used by the connected computer to have the switch send it
+     * packets for the multicast group (a header address), or stop.
+     */
+    void joinGroup(int group) {
+    	if (networkSwitch != null) networkSwitch.joinGroup(group, portNumber);
+    }
+
+    void leaveGroup(int group) {
+    	if (networkSwitch != null) networkSwitch.leaveGroup(group, portNumber);
+    }
+
     /*
      * This method is USED BY THE COMPUTER to send a packet of
      * data to this Port on the Switch.
@@ -50,55 +346,226 @@ public class SwitchPort {
      * The packet of data should follow the simplified
      * header format as specified in the coursework descriptions.
      */
-    public void sendToNetwork(byte[] packet) {
-    	lock.lock();
-    	try {    		
-    		//wait for the previous packet to be picked up
-    		while (this.packet != null) inTransit.await();
-        	this.packet = packet;
+    public void sendToNetwork(Packet packet) {
+    	if (!enqueue(packet)) return;
+    	
+    	//Wake the switch so the packet is forwarded straight away
+    	if (networkSwitch != null) networkSwitch.packetArrived(portNumber);
+    	
+    }
 
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-			
-		} finally {
-    		lock.unlock();
+    /*
+     * Send a batch of packets to this Port, waking the switch
+     * once for the whole batch.
+     */
+    public void sendToNetwork(List<Packet> packets) {
+    	boolean queued = false;
+    	for (int i = 0; i < packets.size(); i++) {
+    		if (enqueue(packets.get(i))) {
+    			queued = true;
+    		} else if (Thread.currentThread().isInterrupted()) {
+    			//Give up on the rest of the batch
+    			for (int j = i + 1; j < packets.size(); j++) packets.get(j).release();
+    			break;
+    		}
     	}
     	
+    	if (queued && networkSwitch != null) networkSwitch.packetArrived(portNumber);
+    }
+    
+    /*Queue the packet, waiting or dropping it if the ring is full*/
+    private boolean enqueue(Packet packet) {
+    	//Read before the switch can take and recycle the packet
+    	int length = packet.getLength();
+    	
+    	while (!ingress.offer(packet)) {
+    		if (policy == OverflowPolicy.DROP_TAIL) {
+    			metrics.packetDropped();
+    			packet.release();
+    			return false;
+    		}
+    		
+    		if (!backOff()) {
+    			packet.release();
+    			return false;
+    		}
+    	}
+    	metrics.packetIn(length);
+    	return true;
     }
 
-    public byte[] getIncomingPacket() {
-    	lock.lock();
+    /*Wait before trying a full ring again, returning false to give up*/
+    private boolean backOff() {
+    	Simulation sim = networkSwitch == null ? null : networkSwitch.getSimulation();
+    	if (sim == null) {
+    		Thread sender = Thread.currentThread();
+    		blockedSenders.add(sender);
+    		try {
+    			//Room made before the sender was recorded would not wake it
+    			LockFreeRing<Packet> ring = ingress;
+    			if (ring.size() >= ring.capacity()) LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+    		} finally {
+    			blockedSenders.remove(sender);
+    		}
+    		return !sender.isInterrupted();
+    	}
     	
-    	byte[] packet = null;
-    	try {    
-        	//Clone bytes to send
-    		if (this.packet != null)  
-    			packet = this.packet.clone();
-        	
-        	//Clear stored packet before sending
-        	this.packet = null;
-        	
-        	//Signal one thread that the packet is sent
-        	inTransit.signal();
-        	//System.out.println("here2");
-		} finally {
-			lock.unlock();
-		}
-		return packet;
+    	//Only a simulated application can wait for the switch to catch up
+    	if (!sim.isProcess()) {
+    		metrics.packetDropped();
+    		return false;
+    	}
+    	try {
+    		sim.sleep(BLOCK_BACKOFF_NANOS);
+    		return true;
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		return false;
+    	}
+    }
+
+    /*
+     * Take the oldest queued packet, if any. The packet is handed
+     * over by reference, not copied.
+     *
+     * Only the switch worker servicing this port may call this.
+     */
+    public Packet getIncomingPacket() {
+    	Packet packet = ingress.poll();
+    	if (packet != null) wakeBlockedSenders();
+    	return packet;
+    }
+
+    /*
+     * Take up to max queued packets, oldest first, adding them to
+     * the list. Returns the number taken.
+     *
+     * Only the switch worker servicing this port may call this.
+     */
+    public int drainIncomingPackets(List<Packet> into, int max) {
+    	int taken = ingress.drainTo(into, max);
+    	if (taken > 0) wakeBlockedSenders();
+    	return taken;
+    }
+    
+    /*There is room in the ring again, so let any waiting senders try*/
+    private void wakeBlockedSenders() {
+    	if (blockedSenders.isEmpty()) return;
+    	for (Thread sender : blockedSenders) LockSupport.unpark(sender);
     }
 
     
-    public void sendToComputer(byte[] packet) {
+    /*
+     * Used by the switch to send a packet out of this port.
+     * Never waits for the connected computer: a packet it can take
+     * straight away is handed over by the forwarding thread itself;
+     * otherwise it waits in the bounded egress queue, which the drainer
+     * of this port empties, so only this computer's packets are held up
+     * (and dropped once the egress queue is full). Ports of a simulated
+     * switch always deliver directly, as simulated computers never wait.
+     */
+    public void sendToComputer(Packet packet) {
+    	
+    	LinkModel current = link;
     	
-   		connectedNetworkCard.sendToComputer(packet);
+    	if (current == null) {
+    		deliver(packet);
+    		
+    	} else if (!current.transmit(packet)) {
+    		//Link buffer full
+    		metrics.packetDroppedAtEgress();
+    		packet.release();
+    	}
     	
     }
 
+    /*
+     * Hand the packet to the computer if it can take it without waiting,
+     * otherwise queue it for the drainer. Also used by the LinkModel
+     * when a packet reaches the end of the link.
+     */
+    void deliver(Packet packet) {
+    	if (networkSwitch == null || networkSwitch.getSimulation() != null) {
+    		deliverNow(packet);
+    		return;
+    	}
+    	
+    	//Packets already waiting go first, so only try directly when there are none
+    	if (!draining.get() && egress.size() == 0 && returned.isEmpty()) {
+    		int length = packet.getLength();
+    		if (connectedNetworkCard.offerToComputer(packet)) {
+    			metrics.packetOut(length);
+    			return;
+    		}
+    	}
+    	
+    	if (!egress.offer(packet)) {
+    		metrics.packetDroppedAtEgress();
+    		packet.release();
+    		return;
+    	}
+    	
+    	startDrainer();
+    }
+    
+    /*
+     * Take back a packet which the computer accepted from offerToComputer()
+     * but then found it could not queue without waiting. The drainer hands
+     * it to the computer again. It has already been counted as sent by
+     * this port.
+     */
+    void returnToEgress(Packet packet) {
+    	returned.add(packet);
+    	startDrainer();
+    }
+    
+    /*Start the drainer unless it is already running*/
+    private void startDrainer() {
+    	if (draining.compareAndSet(false, true)) networkSwitch.getEgressExecutor().execute(drainer);
+    }
+    
+    /*Hand everything queued to the computer, however long it takes*/
+    private void drainEgress() {
+    	while (true) {
+    		Packet packet;
+    		while ((packet = returned.poll()) != null) redeliver(packet);
+    		while ((packet = egress.poll()) != null) deliverNow(packet);
+    		
+    		//A packet queued after the last poll but before this is picked up here
+    		draining.set(false);
+    		if ((egress.size() == 0 && returned.isEmpty()) || !draining.compareAndSet(false, true)) return;
+    	}
+    }
+    
+    private void redeliver(Packet packet) {
+    	try {
+    		connectedNetworkCard.sendToComputer(packet);
+    		
+    	} catch (RuntimeException e) {
+    		metrics.deliveryFailed();
+    	}
+    }
+    
+    private void deliverNow(Packet packet) {
+    	int length = packet.getLength();
+    	try {
+    		connectedNetworkCard.sendToComputer(packet);
+    		metrics.packetOut(length);
+    		
+    	} catch (RuntimeException e) {
+    		//Lose this packet but keep draining
+    		metrics.deliveryFailed();
+    	}
+    }
+
 
     public void connectNetworkCard(NetworkCard networkCard) {
 
-        connectedNetworkCard = networkCard;
         ipAddress = networkCard.getIPAddress();
+        connectedNetworkCard = networkCard;
+
+        //Let the switch know the address is reachable through this port
+        if (networkSwitch != null) networkSwitch.portConnected(this);
 
     }
 
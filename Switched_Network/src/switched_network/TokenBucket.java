@@ -0,0 +1,96 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * A token bucket which fills at a rate in bits per second and holds
+ * at most a burst of bytes. A Computer uses one to shape what it
+ * sends (waiting until a packet conforms) and a SwitchPort uses one
+ * to police what arrives (dropping packets which do not conform).
+ *
+ * The bucket is kept as the time at which it would be full again,
+ * so nothing needs to refill it: each call works out the tokens
+ * from the time it is given. Callers pass in a time they already
+ * have, such as the timestamp a switch worker takes once per scan,
+ * so the bucket never reads the clock itself. Any number of threads
+ * may use a bucket at once; each call is a single compare-and-set.
+ *
+ */
+public class TokenBucket {
+
+    private final long bitsPerSecond;
+    private final int burstBytes;
+    private final double nanosPerByte;
+    private final long burstNanos;
+
+    // When the bucket will be full if nothing more is taken.
+    private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+
+    public TokenBucket(long bitsPerSecond, int burstBytes) {
+
+        if (bitsPerSecond < 1 || burstBytes < 1) {
+            throw new IllegalArgumentException("Token bucket rate and burst must be positive");
+        }
+        this.bitsPerSecond = bitsPerSecond;
+        this.burstBytes = burstBytes;
+        this.nanosPerByte = 8e9 / bitsPerSecond;
+        this.burstNanos = nanosFor(burstBytes);
+
+    }
+
+    public long getRate() {
+        return bitsPerSecond;
+    }
+
+    public int getBurst() {
+        return burstBytes;
+    }
+
+    /*
+     * Take tokens for the bytes if the bucket holds enough at the
+     * given time (in nanoseconds), otherwise take nothing and return
+     * false. Used to police.
+     */
+    public boolean tryConsume(int bytes, long now) {
+
+        long cost = nanosFor(bytes);
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + cost;
+            if (next - now > burstNanos) return false;
+            if (fullAt.compareAndSet(current, next)) return true;
+        }
+
+    }
+
+    /*
+     * Take tokens for the bytes whether or not the bucket holds enough,
+     * returning how many nanoseconds after the given time the bytes may
+     * be sent, 0 if straight away. Used to shape.
+     */
+    public long consume(int bytes, long now) {
+
+        long cost = nanosFor(bytes);
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + cost;
+            if (fullAt.compareAndSet(current, next)) return Math.max(0, next - now - burstNanos);
+        }
+
+    }
+
+    private long nanosFor(int bytes) {
+        return (long) Math.ceil(bytes * nanosPerByte);
+    }
+
+    public String toString() {
+        return bitsPerSecond + " b/s burst " + burstBytes + " B";
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Reads a network description from a text file into a NetworkBuilder.
+ * Each line is one statement, '#' starts a comment, and a port may be
+ * given after a switch name as switch:port:
+ *
+ *   switch <name> <ports> [<workers>]
+ *   priority <switch> <bridge priority>
+ *   host <name> <address> <switch>[:<port>]
+ *   hosts <prefix> <first address> <count> <switch>
+ *   trunk <switch>[:<port>] <switch>[:<port>]
+ *   app <host or prefix*> <type> [<args> ...]
+ *   spanning-tree
+ *   host-link <bits per second> <propagation delay in us>
+ *   trunk-link <bits per second> <propagation delay in us>
+ *   traffic-class <class> strict|<weight>
+ *   host-shaper <bits per second> <burst bytes>
+ *   host-policer <bits per second> <burst bytes>
+ *   mtu <bytes>
+ *
+ * Bandwidths may end in k, M or G, e.g. 10G. For example the network in Main is:
+ *
+ *   switch s 4
+ *   host A 1.2.3.4 s:0
+ *   host B 1.2.3.7 s:1
+ *   app B parrot 9999
+ *   app A hello 1.2.3.7 9999
+ *
+ * The application types "parrot" (port) and "hello" (address, port)
+ * are known; others can be added with registerApplication(). The
+ * arguments of an app statement are checked against those its type was
+ * registered with, so that mistakes are reported with their line.
+ *
+ */
+public class TopologyLoader {
+
+    private final Map<String, ApplicationFactory> factories = new HashMap<String, ApplicationFactory>();
+    private final Map<String, String[]> arguments = new HashMap<String, String[]>();
+
+
+    public TopologyLoader() {
+
+        registerApplication("parrot", new ApplicationFactory() {
+            public Application create(ComputerOS computerOS, String[] args) {
+                return new ParrotServer(computerOS, Integer.parseInt(args[0]));
+            }
+        }, "port");
+
+        registerApplication("hello", new ApplicationFactory() {
+            public Application create(ComputerOS computerOS, String[] args) throws Exception {
+                return new HelloWorldClient(computerOS, InetAddress.getByName(args[0]), Integer.parseInt(args[1]));
+            }
+        }, "address", "port");
+
+    }
+
+    /*
+     * Add an application type whose arguments are not checked.
+     */
+    public void registerApplication(String type, ApplicationFactory factory) {
+        factories.put(type, factory);
+        arguments.remove(type);
+    }
+
+    /*
+     * Add an application type taking exactly the given arguments, each
+     * one of "port", "address", "int" or "text".
+     */
+    public void registerApplication(String type, ApplicationFactory factory, String... argumentTypes) {
+        for (String argumentType : argumentTypes) {
+            if (!Arrays.asList("port", "address", "int", "text").contains(argumentType)) {
+                throw new IllegalArgumentException("Unknown argument type " + argumentType);
+            }
+        }
+        factories.put(type, factory);
+        arguments.put(type, argumentTypes.clone());
+    }
+
+    public NetworkBuilder load(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            return load(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /*
+     * Read the description into a new builder. A statement which cannot
+     * be understood is reported with an IllegalArgumentException giving
+     * its line number.
+     */
+    public NetworkBuilder load(Reader reader) throws IOException {
+
+        NetworkBuilder builder = new NetworkBuilder();
+        BufferedReader lines = new BufferedReader(reader);
+
+        String line;
+        int number = 0;
+        while ((line = lines.readLine()) != null) {
+            number++;
+
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            try {
+                parse(builder, line.split("\\s+"));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Line " + number + ": " + e.getMessage(), e);
+            }
+        }
+        return builder;
+
+    }
+
+    private void parse(NetworkBuilder builder, String[] words) {
+
+        String statement = words[0];
+
+        if (statement.equals("switch")) {
+            expect(words, 3, 4);
+            builder.addSwitch(words[1], Integer.parseInt(words[2]), words.length > 3 ? Integer.parseInt(words[3]) : 1);
+
+        } else if (statement.equals("priority")) {
+            expect(words, 3, 3);
+            builder.setBridgePriority(words[1], Integer.parseInt(words[2]));
+
+        } else if (statement.equals("host")) {
+            expect(words, 4, 4);
+            builder.addHost(words[1], words[2], switchName(words[3]), port(words[3]));
+
+        } else if (statement.equals("hosts")) {
+            expect(words, 5, 5);
+            builder.addHosts(words[1], words[2], Integer.parseInt(words[3]), words[4]);
+
+        } else if (statement.equals("trunk")) {
+            expect(words, 3, 3);
+            builder.addTrunk(switchName(words[1]), port(words[1]), switchName(words[2]), port(words[2]));
+
+        } else if (statement.equals("app")) {
+            expect(words, 3, Integer.MAX_VALUE);
+            ApplicationFactory factory = factories.get(words[2]);
+            if (factory == null) throw new IllegalArgumentException("Unknown application type " + words[2]);
+            String[] argumentTypes = arguments.get(words[2]);
+            if (argumentTypes != null) checkArguments(words, argumentTypes);
+            builder.addApplication(words[1], factory, Arrays.copyOfRange(words, 3, words.length));
+
+        } else if (statement.equals("host-link")) {
+            expect(words, 3, 3);
+            builder.setHostLink(bandwidth(words[1]), Long.parseLong(words[2]), TimeUnit.MICROSECONDS);
+
+        } else if (statement.equals("trunk-link")) {
+            expect(words, 3, 3);
+            builder.setTrunkLink(bandwidth(words[1]), Long.parseLong(words[2]), TimeUnit.MICROSECONDS);
+
+        } else if (statement.equals("host-shaper")) {
+            expect(words, 3, 3);
+            builder.setHostShaper(bandwidth(words[1]), Integer.parseInt(words[2]));
+
+        } else if (statement.equals("host-policer")) {
+            expect(words, 3, 3);
+            builder.setHostPolicer(bandwidth(words[1]), Integer.parseInt(words[2]));
+
+        } else if (statement.equals("mtu")) {
+            expect(words, 2, 2);
+            builder.setMtu(Integer.parseInt(words[1]));
+
+        } else if (statement.equals("traffic-class")) {
+            expect(words, 3, 3);
+            if (words[2].equals("strict")) {
+                builder.setStrictPriority(Integer.parseInt(words[1]));
+            } else {
+                builder.setClassWeight(Integer.parseInt(words[1]), Integer.parseInt(words[2]));
+            }
+
+        } else if (statement.equals("spanning-tree")) {
+            expect(words, 1, 1);
+            builder.setSpanningTree(true);
+
+        } else {
+            throw new IllegalArgumentException("Unknown statement " + statement);
+        }
+
+    }
+
+    private static void expect(String[] words, int min, int max) {
+        if (words.length < min || words.length > max) {
+            throw new IllegalArgumentException("Wrong number of values for " + words[0]);
+        }
+    }
+
+    /*The arguments after "app <host> <type>" against the types registered for it*/
+    private static void checkArguments(String[] words, String[] argumentTypes) {
+
+        if (words.length - 3 != argumentTypes.length) {
+            throw new IllegalArgumentException("Application " + words[2] + " takes " + argumentTypes.length
+                                               + " arguments but was given " + (words.length - 3));
+        }
+
+        for (int i = 0; i < argumentTypes.length; i++) {
+            String word = words[i + 3];
+            try {
+                if (argumentTypes[i].equals("port")) {
+                    int port = Integer.parseInt(word);
+                    if (port < 0 || port > 65535) throw new IllegalArgumentException();
+                } else if (argumentTypes[i].equals("address")) {
+                    NetworkBuilder.parseAddress(word);
+                } else if (argumentTypes[i].equals("int")) {
+                    Integer.parseInt(word);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Argument " + (i + 1) + " of application " + words[2]
+                                                   + " is not a valid " + argumentTypes[i] + ": " + word);
+            }
+        }
+
+    }
+
+    /*Bits per second, with an optional k, M or G multiplier*/
+    private static long bandwidth(String word) {
+        char unit = word.charAt(word.length() - 1);
+        long multiplier = unit == 'k' ? 1000L : unit == 'M' ? 1000000L : unit == 'G' ? 1000000000L : 1;
+        String digits = multiplier == 1 ? word : word.substring(0, word.length() - 1);
+        return Long.parseLong(digits) * multiplier;
+    }
+
+    private static String switchName(String word) {
+        int colon = word.indexOf(':');
+        return colon < 0 ? word : word.substring(0, colon);
+    }
+
+    /*The port after the colon, or -1 for the next free port*/
+    private static int port(String word) {
+        int colon = word.indexOf(':');
+        return colon < 0 ? -1 : Integer.parseInt(word.substring(colon + 1));
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * A link between a port of one NetworkSwitch and a port of another,
+ * so that networks can be built from several switches (e.g. racks
+ * joined by an aggregation layer).
+ *
+ * A packet a switch sends out of one end of the trunk is queued on
+ * the ingress of the port at the other end, and forwarded by that
+ * switch as if it had come from a computer. Each switch learns which
+ * addresses are reached through the trunk from the packets arriving
+ * on it.
+ *
+ * Trunk ports drop packets when their ingress queue is full rather
+ * than making the sending switch wait, as two switches waiting on
+ * each other would stop both.
+ *
+ * Trunks forming a loop must be broken, either by blocking one of
+ * them with setBlocked() or by letting SpanningTree choose.
+ *
+ * Between simulated switches a packet takes the latency of the trunk
+ * to cross it. Between partitions of a ParallelSimulation the latency
+ * must be at least the lookahead, as the packet is posted to the far
+ * partition. Switches running in real time ignore the latency.
+ *
+ */
+public class TrunkLink {
+
+    public final static int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final SwitchPort portA;
+    private final SwitchPort portB;
+
+    private volatile long latencyNanos = 0;
+
+
+    public TrunkLink(SwitchPort portA, SwitchPort portB) {
+        this(portA, portB, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /*
+     * Connect the two ports, giving each an ingress queue of the given
+     * capacity. Both ports must belong to a switch and be unconnected.
+     */
+    public TrunkLink(SwitchPort portA, SwitchPort portB, int queueCapacity) {
+
+        if (portA.getSwitch() == null || portB.getSwitch() == null) {
+            throw new IllegalArgumentException("Trunk ports must belong to a switch");
+        }
+        if (portA == portB || portA.isConnected() || portB.isConnected()) {
+            throw new IllegalArgumentException("Trunk ports must be two unconnected ports");
+        }
+        if ((portA.getSwitch().getSimulation() == null) != (portB.getSwitch().getSimulation() == null)) {
+            throw new IllegalArgumentException("A simulated switch cannot be connected to a real one");
+        }
+
+        this.portA = portA;
+        this.portB = portB;
+
+        // Several workers of the far switch may send into each port.
+        portA.configureIngressQueue(queueCapacity, OverflowPolicy.DROP_TAIL, LockFreeRing.Producers.MULTIPLE);
+        portB.configureIngressQueue(queueCapacity, OverflowPolicy.DROP_TAIL, LockFreeRing.Producers.MULTIPLE);
+
+        portA.connectNetworkCard(new End(portA, portB));
+        portB.connectNetworkCard(new End(portB, portA));
+
+    }
+
+    public SwitchPort getPortA() {
+        return portA;
+    }
+
+    public SwitchPort getPortB() {
+        return portB;
+    }
+
+    public NetworkSwitch getSwitchA() {
+        return portA.getSwitch();
+    }
+
+    public NetworkSwitch getSwitchB() {
+        return portB.getSwitch();
+    }
+
+    /*
+     * Set the time a packet takes to cross a trunk between simulated
+     * switches. Should be set before the simulation runs.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    public long getLatency(TimeUnit unit) {
+        return unit.convert(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * Block (or unblock) both ends of the trunk.
+     */
+    public void setBlocked(boolean blocked) {
+        portA.setBlocked(blocked);
+        portB.setBlocked(blocked);
+    }
+
+    public boolean isBlocked() {
+        return portA.isBlocked();
+    }
+
+    public String toString() {
+        return portA.getSwitch().getName() + ":" + portA.getNumber() + " <-> "
+             + portB.getSwitch().getName() + ":" + portB.getNumber();
+    }
+
+
+    /*
+     * Stands in for a network card on one end of the trunk,
+     * passing whatever the switch sends it to the far port.
+     */
+    private class End implements NetworkCard {
+
+        private final SwitchPort own;
+        private final SwitchPort peer;
+
+        End(SwitchPort own, SwitchPort peer) {
+            this.own = own;
+            this.peer = peer;
+        }
+
+        // A trunk has no address of its own.
+        public InetAddress getIPAddress() {
+            return null;
+        }
+
+        public void connectPort(SwitchPort port) { }
+
+        public void sendToComputer(final Packet packet) {
+            Simulation from = own.getSwitch().getSimulation();
+            Simulation to = peer.getSwitch().getSimulation();
+            long latency = latencyNanos;
+
+            if (from == null || (from == to && latency == 0)) {
+                peer.sendToNetwork(packet);
+                return;
+            }
+
+            Runnable arrival = new Runnable() {
+                public void run() {
+                    peer.sendToNetwork(packet);
+                }
+            };
+            if (from == to) {
+                from.schedule(latency, TimeUnit.NANOSECONDS, arrival);
+            } else {
+                from.post(to, from.now() + latency, arrival);
+            }
+        }
+
+        // The far port drops rather than waits when its queue is full.
+        public boolean offerToComputer(Packet packet) {
+            sendToComputer(packet);
+            return true;
+        }
+
+    }
+
+}
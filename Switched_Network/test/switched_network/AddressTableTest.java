@@ -0,0 +1,136 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of AddressTable, in particular removing entries from probe
+ * sequences which wrap around the end of the table.
+ *
+ */
+public class AddressTableTest {
+
+    // new AddressTable(4) has 8 slots and grows past 4 entries.
+    private final static int SLOTS = 8;
+
+
+    /*
+     * The first few addresses from the given one whose home slot is the
+     * given slot, spreading the bits as the table does.
+     */
+    private static int[] addressesAt(int slot, int count, int from) {
+        int[] found = new int[count];
+        int n = 0;
+        for (int address = from; n < count; address++) {
+            int h = address * 0x9E3779B9;
+            if (((h ^ (h >>> 16)) & (SLOTS - 1)) == slot) found[n++] = address;
+        }
+        return found;
+    }
+
+    @Test
+    public void removeFromWrappedProbeSequence() {
+
+        int[] last = addressesAt(SLOTS - 1, 3, 1);
+        int first = addressesAt(0, 1, 1)[0];
+
+        // last[0] takes slot 7, and the rest wrap round to 0, 1 and 2.
+        AddressTable table = new AddressTable(4);
+        table.put(last[0], 10);
+        table.put(last[1], 11);
+        table.put(first, 20);
+        table.put(last[2], 12);
+
+        assertEquals(10, table.remove(last[0]));
+        assertEquals(-1, table.get(last[0]));
+        assertEquals(11, table.get(last[1]));
+        assertEquals(12, table.get(last[2]));
+        assertEquals(20, table.get(first));
+        assertEquals(3, table.size());
+
+        // Put back, it goes to the end of the sequence.
+        table.put(last[0], 13);
+        assertEquals(13, table.get(last[0]));
+        assertEquals(11, table.remove(last[1]));
+        assertEquals(20, table.remove(first));
+        assertEquals(12, table.get(last[2]));
+        assertEquals(13, table.get(last[0]));
+        assertEquals(2, table.size());
+
+        table.put(first, 21);
+        table.put(last[1], 14);
+        assertEquals(21, table.get(first));
+        assertEquals(14, table.get(last[1]));
+        assertEquals(12, table.get(last[2]));
+        assertEquals(13, table.get(last[0]));
+        assertEquals(4, table.size());
+
+    }
+
+    @Test
+    public void removeOlderThanAcrossTheWrap() {
+
+        int[] last = addressesAt(SLOTS - 1, 4, 1);
+
+        AddressTable table = new AddressTable(4);
+        for (int i = 0; i < last.length; i++) table.put(last[i], i, i % 2 == 0 ? 1 : 5);
+
+        assertEquals(2, table.removeOlderThan(3));
+        assertEquals(-1, table.get(last[0]));
+        assertEquals(1, table.get(last[1]));
+        assertEquals(-1, table.get(last[2]));
+        assertEquals(3, table.get(last[3]));
+
+    }
+
+    @Test
+    public void staticEntriesNeverAge() {
+
+        AddressTable table = new AddressTable();
+        table.put(1, 1);
+        table.put(2, 2, 10);
+
+        assertEquals(1, table.removeOlderThan(Long.MAX_VALUE - 1));
+        assertEquals(1, table.get(1));
+        assertEquals(-1, table.get(2));
+
+    }
+
+    @Test
+    public void agreesWithHashMap() {
+
+        Random random = new Random(1);
+        AddressTable table = new AddressTable(4);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+
+        for (int i = 0; i < 100000; i++) {
+            int address = random.nextInt(64);
+            if (random.nextInt(3) == 0) {
+                Integer port = expected.remove(address);
+                assertEquals(port == null ? -1 : port.intValue(), table.remove(address));
+            } else {
+                int port = random.nextInt(48);
+                expected.put(address, port);
+                table.put(address, port);
+            }
+            assertEquals(expected.size(), table.size());
+        }
+
+        for (int address = 0; address < 64; address++) {
+            Integer port = expected.get(address);
+            assertEquals(port == null ? -1 : port.intValue(), table.get(address));
+        }
+
+    }
+
+}
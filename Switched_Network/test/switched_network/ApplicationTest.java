@@ -0,0 +1,111 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of starting and stopping an Application.
+ *
+ */
+public class ApplicationTest {
+
+    /*An application which waits in recv() for a message which never comes*/
+    private static class Listener extends Application {
+
+        final CountDownLatch listening = new CountDownLatch(1);
+        volatile byte[] received = new byte[0];
+
+        Listener(ComputerOS computerOS) {
+            super("listener", computerOS);
+        }
+
+        public void run() {
+            listening.countDown();
+            received = getComputerOS().recv(9999);
+        }
+
+    }
+
+    private static Computer computer() throws Exception {
+        return new Computer("A", InetAddress.getByName("1.2.3.4"));
+    }
+
+    @Test(timeout = 10000)
+    public void stopEndsBlockedRecv() throws Exception {
+
+        Listener listener = new Listener(computer());
+        listener.start();
+        listener.listening.await();
+
+        // Give it time to block in recv().
+        assertFalse(listener.join(100, TimeUnit.MILLISECONDS));
+        assertTrue(listener.isRunning());
+
+        listener.stop();
+        assertTrue(listener.join(5, TimeUnit.SECONDS));
+        assertNull(listener.received);
+        assertFalse(listener.isRunning());
+
+        // The interrupt went to the application, not to the caller.
+        assertFalse(Thread.currentThread().isInterrupted());
+
+    }
+
+    @Test(timeout = 10000)
+    public void stopBeforeRunning() throws Exception {
+
+        Listener listener = new Listener(computer());
+        listener.stop();
+        listener.start();
+
+        assertTrue(listener.join(5, TimeUnit.SECONDS));
+        assertEquals(1, listener.listening.getCount());
+
+    }
+
+    /*
+     * An application stopped on a pooled thread must not leave the
+     * interrupt behind for the next task the thread runs.
+     */
+    @Test(timeout = 10000)
+    public void pooledThreadIsNotLeftInterrupted() throws Exception {
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Listener listener = new Listener(computer());
+            listener.start(new ApplicationLauncher(executor));
+            listener.listening.await();
+            listener.stop();
+            assertTrue(listener.join(5, TimeUnit.SECONDS));
+
+            Future<Boolean> next = executor.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    return Thread.currentThread().isInterrupted();
+                }
+            });
+            assertFalse(next.get());
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of BoundedQueue when full, for each OverflowPolicy.
+ *
+ */
+public class BoundedQueueTest {
+
+    @Test
+    public void dropTailDropsAndCounts() throws Exception {
+
+        BoundedQueue<Integer> queue = new BoundedQueue<Integer>(2, OverflowPolicy.DROP_TAIL);
+        assertTrue(queue.add(1));
+        assertTrue(queue.add(2));
+        assertFalse(queue.add(3));
+        assertFalse(queue.add(4));
+
+        assertEquals(2, queue.getDropped());
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.poll().intValue());
+        assertEquals(2, queue.poll().intValue());
+        assertNull(queue.poll());
+
+    }
+
+    @Test(timeout = 10000)
+    public void blockWaitsForRoom() throws Exception {
+
+        final BoundedQueue<Integer> queue = new BoundedQueue<Integer>(1, OverflowPolicy.BLOCK);
+        queue.add(1);
+        assertFalse(queue.offer(2));
+
+        Thread producer = new Thread() {
+            public void run() {
+                try {
+                    queue.add(2);
+                } catch (InterruptedException e) {
+                    // Fails the test below.
+                }
+            }
+        };
+        producer.start();
+
+        // The producer stays blocked until there is room.
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        assertEquals(1, queue.size());
+
+        assertEquals(1, queue.take().intValue());
+        producer.join();
+        assertEquals(2, queue.take().intValue());
+        assertEquals(0, queue.getDropped());
+
+    }
+
+    @Test(timeout = 10000)
+    public void blockedAddCanBeInterrupted() throws Exception {
+
+        final BoundedQueue<Integer> queue = new BoundedQueue<Integer>(1, OverflowPolicy.BLOCK);
+        queue.add(1);
+
+        final boolean[] interrupted = new boolean[1];
+        Thread producer = new Thread() {
+            public void run() {
+                try {
+                    queue.add(2);
+                } catch (InterruptedException e) {
+                    interrupted[0] = true;
+                }
+            }
+        };
+        producer.start();
+        producer.join(100);
+        producer.interrupt();
+        producer.join();
+
+        assertTrue(interrupted[0]);
+        assertEquals(1, queue.size());
+
+    }
+
+    @Test
+    public void timedPollGivesUp() throws Exception {
+
+        BoundedQueue<Integer> queue = new BoundedQueue<Integer>(4, OverflowPolicy.BLOCK);
+        long start = System.nanoTime();
+        assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of the blocking, timed and non-blocking receive methods of
+ * Computer when nothing arrives, and of a full receive queue.
+ *
+ */
+public class ComputerReceiveTest {
+
+    private static Computer computer() throws Exception {
+        return new Computer("A", InetAddress.getByName("1.2.3.4"));
+    }
+
+    @Test
+    public void pollReturnsNullWhenEmpty() throws Exception {
+        assertNull(computer().poll(9999));
+    }
+
+    @Test
+    public void timedRecvGivesUp() throws Exception {
+
+        Computer computer = computer();
+        long start = System.nanoTime();
+        assertNull(computer.recv(9999, 50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+    }
+
+    @Test(timeout = 10000)
+    public void interruptedRecvReturnsNull() throws Exception {
+
+        final Computer computer = computer();
+        final byte[][] received = { new byte[0] };
+        final boolean[] stillInterrupted = new boolean[1];
+
+        Thread receiver = new Thread() {
+            public void run() {
+                received[0] = computer.recv(9999);
+                stillInterrupted[0] = Thread.currentThread().isInterrupted();
+            }
+        };
+        receiver.start();
+        receiver.join(100);
+        receiver.interrupt();
+        receiver.join();
+
+        assertNull(received[0]);
+        assertTrue(stillInterrupted[0]);
+
+    }
+
+    /*
+     * Nothing can arrive on a port outside 0-65535, so every receive
+     * method returns at once rather than waiting.
+     */
+    @Test(timeout = 10000)
+    public void portOutOfRange() throws Exception {
+
+        Computer computer = computer();
+        assertNull(computer.recv(65536));
+        assertNull(computer.recv(-1));
+        assertNull(computer.recv(70000, 1, TimeUnit.DAYS));
+        assertNull(computer.poll(65536));
+        assertNull(computer.poll(-1));
+        assertNull(computer.recvBatch(65536, 4));
+        assertEquals(-1, computer.recv(65536, new byte[16]));
+        assertNull(computer.recvFragment(-1));
+        assertEquals(0, computer.getQueueLength(-1));
+
+    }
+
+    /*
+     * A delivery waiting for room in a BLOCK queue which is interrupted
+     * drops the packet, counts it, and keeps the interrupt.
+     */
+    @Test(timeout = 10000)
+    public void interruptedDeliveryIsCountedAsDropped() throws Exception {
+
+        final Computer computer = computer();
+        computer.configureReceiveQueue(9999, 1, OverflowPolicy.BLOCK);
+        computer.sendToComputer(Packet.create(0x0A000001, 0x01020304, 1, 9999, new byte[16], false));
+
+        final boolean[] stillInterrupted = new boolean[1];
+        Thread deliverer = new Thread() {
+            public void run() {
+                computer.sendToComputer(Packet.create(0x0A000001, 0x01020304, 1, 9999, new byte[16], false));
+                stillInterrupted[0] = Thread.currentThread().isInterrupted();
+            }
+        };
+        deliverer.start();
+        while (deliverer.getState() != Thread.State.WAITING) Thread.sleep(1);
+        deliverer.interrupt();
+        deliverer.join();
+
+        assertTrue(stillInterrupted[0]);
+        assertEquals(1, computer.getQueueLength(9999));
+        assertEquals(1, computer.getDroppedPackets(9999));
+
+    }
+
+}
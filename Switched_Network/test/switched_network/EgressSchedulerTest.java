@@ -0,0 +1,165 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests that EgressScheduler shares bytes between the traffic classes
+ * in proportion to their weights, whatever their packet sizes, and
+ * serves strict priority classes first, and that each port of a
+ * switch has its own weights.
+ *
+ */
+public class EgressSchedulerTest {
+
+    private final static int CAPACITY = 64;
+
+
+    private static Packet packet(int trafficClass, int payloadLength) {
+        return Packet.create(0x0A000001, 0x0A000002, 1, 2, trafficClass, new byte[payloadLength], false);
+    }
+
+    /*Keep every class in the given payload lengths backlogged and count the bytes each sends*/
+    private static long[] sendBytes(int[] weights, int[] payloadLengths, int packets) {
+
+        EgressScheduler scheduler = new EgressScheduler(weights, CAPACITY);
+        for (int c = 0; c < payloadLengths.length; c++) {
+            if (payloadLengths[c] > 0) {
+                for (int i = 0; i < CAPACITY; i++) scheduler.offer(packet(c, payloadLengths[c]));
+            }
+        }
+
+        long[] bytes = new long[Packet.TRAFFIC_CLASSES];
+        for (int i = 0; i < packets; i++) {
+            Packet sent = scheduler.poll();
+            int c = sent.getTrafficClass();
+            bytes[c] += sent.getLength();
+            scheduler.offer(packet(c, payloadLengths[c]));
+        }
+        return bytes;
+
+    }
+
+    private static int[] weights(int... classWeights) {
+        int[] weights = new int[Packet.TRAFFIC_CLASSES];
+        Arrays.fill(weights, 1);
+        System.arraycopy(classWeights, 0, weights, 0, classWeights.length);
+        return weights;
+    }
+
+    @Test
+    public void bytesFollowTheWeights() {
+
+        int[] lengths = new int[Packet.TRAFFIC_CLASSES];
+        lengths[0] = 1000;
+        lengths[1] = 1000;
+        lengths[2] = 1000;
+
+        long[] bytes = sendBytes(weights(1, 3, 2), lengths, 60000);
+        assertEquals(3.0, (double) bytes[1] / bytes[0], 0.03);
+        assertEquals(2.0, (double) bytes[2] / bytes[0], 0.02);
+
+    }
+
+    @Test
+    public void packetSizesDoNotChangeTheShares() {
+
+        int[] lengths = new int[Packet.TRAFFIC_CLASSES];
+        lengths[0] = 64;
+        lengths[1] = 1400;
+
+        long[] bytes = sendBytes(weights(1, 1), lengths, 100000);
+        assertEquals(1.0, (double) bytes[1] / bytes[0], 0.02);
+
+    }
+
+    @Test
+    public void strictPriorityFirst() {
+
+        int[] weights = weights(1, 1);
+        weights[5] = 0;
+        EgressScheduler scheduler = new EgressScheduler(weights, CAPACITY);
+
+        scheduler.offer(packet(0, 100));
+        scheduler.offer(packet(1, 100));
+        scheduler.offer(packet(5, 100));
+        scheduler.offer(packet(5, 100));
+
+        assertEquals(5, scheduler.poll().getTrafficClass());
+        assertEquals(5, scheduler.poll().getTrafficClass());
+        scheduler.poll();
+        scheduler.poll();
+        assertNull(scheduler.poll());
+
+    }
+
+    @Test
+    public void weightsAreCopied() {
+
+        int[] weights = weights(1, 1);
+        EgressScheduler scheduler = new EgressScheduler(weights, CAPACITY);
+        weights[1] = 0;
+
+        // Class 1 is still shared fairly, not given strict priority.
+        scheduler.offer(packet(0, 100));
+        scheduler.offer(packet(1, 100));
+        assertEquals(0, scheduler.poll().getTrafficClass());
+
+    }
+
+    @Test
+    public void weightsArePerPort() {
+
+        NetworkSwitch networkSwitch = new NetworkSwitch(2);
+        networkSwitch.getPort(0).setClassWeight(1, 8);
+        networkSwitch.getPort(0).setStrictPriority(2);
+
+        assertEquals(8, networkSwitch.getPort(0).getClassWeight(1));
+        assertTrue(networkSwitch.getPort(0).isStrictPriority(2));
+        assertEquals(SwitchPort.DEFAULT_CLASS_WEIGHT, networkSwitch.getPort(1).getClassWeight(1));
+        assertFalse(networkSwitch.getPort(1).isStrictPriority(2));
+
+    }
+
+    @Test
+    public void weightsAreFixedOncePoweredUp() throws Exception {
+
+        NetworkSwitch networkSwitch = new NetworkSwitch(2);
+        networkSwitch.powerUp();
+        try {
+            networkSwitch.getPort(0).setClassWeight(1, 8);
+            fail("Weight changed after power up");
+        } catch (IllegalStateException e) {
+            assertEquals(SwitchPort.DEFAULT_CLASS_WEIGHT, networkSwitch.getPort(0).getClassWeight(1));
+        }
+        try {
+            networkSwitch.getPort(0).setStrictPriority(2);
+            fail("Strict priority set after power up");
+        } catch (IllegalStateException e) {
+            assertFalse(networkSwitch.getPort(0).isStrictPriority(2));
+        }
+
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void simulatedWeightsAreFixedOncePoweredUp() throws Exception {
+
+        NetworkSwitch networkSwitch = new NetworkSwitch(2, new Simulation());
+        networkSwitch.powerUp();
+        networkSwitch.getPort(0).setClassWeight(1, 8);
+
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of joining and leaving multicast groups, in a GroupTable
+ * and through the computers attached to a switch.
+ *
+ */
+public class GroupTableTest {
+
+    private final static int GROUP_A = 0xEF000001;
+    private final static int GROUP_B = 0xE0000005;
+
+
+    @Test
+    public void membersAreKeptInPortOrder() {
+
+        GroupTable table = new GroupTable();
+        table.join(GROUP_A, 3);
+        table.join(GROUP_A, 1);
+        table.join(GROUP_A, 2);
+        table.join(GROUP_A, 1);
+
+        assertArrayEquals(new int[] { 1, 2, 3 }, table.getMembers(GROUP_A));
+        assertEquals(1, table.size());
+
+    }
+
+    @Test
+    public void groupsAreSeparate() {
+
+        GroupTable table = new GroupTable();
+        table.join(GROUP_A, 1);
+        table.join(GROUP_B, 2);
+
+        assertArrayEquals(new int[] { 1 }, table.getMembers(GROUP_A));
+        assertArrayEquals(new int[] { 2 }, table.getMembers(GROUP_B));
+        assertArrayEquals(new int[0], table.getMembers(0xE0000009));
+        assertEquals(2, table.size());
+
+    }
+
+    @Test
+    public void leaveRemovesThePortThenTheGroup() {
+
+        GroupTable table = new GroupTable();
+        table.join(GROUP_A, 1);
+        table.join(GROUP_A, 2);
+        table.join(GROUP_B, 1);
+
+        table.leave(GROUP_A, 1);
+        assertArrayEquals(new int[] { 2 }, table.getMembers(GROUP_A));
+        assertEquals(2, table.size());
+
+        table.leave(GROUP_A, 2);
+        assertArrayEquals(new int[0], table.getMembers(GROUP_A));
+        assertArrayEquals(new int[] { 1 }, table.getMembers(GROUP_B));
+        assertEquals(1, table.size());
+
+    }
+
+    @Test
+    public void leavingWhatWasNotJoinedDoesNothing() {
+
+        GroupTable table = new GroupTable();
+        table.join(GROUP_A, 1);
+        table.leave(GROUP_A, 2);
+        table.leave(GROUP_B, 1);
+
+        assertArrayEquals(new int[] { 1 }, table.getMembers(GROUP_A));
+        assertEquals(1, table.size());
+
+    }
+
+    /*
+     * A lookup keeps the members it was given while ports join and leave.
+     */
+    @Test
+    public void membersAreASnapshot() {
+
+        GroupTable table = new GroupTable();
+        table.join(GROUP_A, 1);
+        int[] members = table.getMembers(GROUP_A);
+
+        table.join(GROUP_A, 2);
+        table.leave(GROUP_A, 1);
+        assertArrayEquals(new int[] { 1 }, members);
+        assertArrayEquals(new int[] { 2 }, table.getMembers(GROUP_A));
+
+    }
+
+    @Test
+    public void computersJoinAndLeaveThroughTheirPorts() throws Exception {
+
+        NetworkSwitch networkSwitch = new NetworkSwitch(4);
+        InetAddress group = Packet.toInetAddress(GROUP_A);
+        Computer[] computers = new Computer[3];
+        for (int i = 0; i < computers.length; i++) {
+            computers[i] = new Computer("C" + i, Packet.toInetAddress(0x0A000001 + i));
+        }
+
+        // Joined before and after the computer is connected.
+        computers[0].joinGroup(group);
+        for (int i = 0; i < computers.length; i++) {
+            networkSwitch.getPort(i).connectNetworkCard(computers[i]);
+            computers[i].connectPort(networkSwitch.getPort(i));
+        }
+        computers[2].joinGroup(group);
+        assertArrayEquals(new int[] { 0, 2 }, networkSwitch.getGroupMembers(group));
+
+        computers[0].leaveGroup(group);
+        assertArrayEquals(new int[] { 2 }, networkSwitch.getGroupMembers(group));
+
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onlyMulticastGroupsCanBeJoined() throws Exception {
+        new Computer("C", Packet.toInetAddress(0x0A000001)).joinGroup(Packet.toInetAddress(0x0A000002));
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of LockFreeRing, including several producers at once.
+ *
+ */
+public class LockFreeRingTest {
+
+    private final static int PRODUCERS = 4;
+    private final static int ITEMS_EACH = 200000;
+
+
+    @Test
+    public void firstInFirstOut() {
+
+        LockFreeRing<Integer> ring = new LockFreeRing<Integer>(3, LockFreeRing.Producers.SINGLE);
+        assertEquals(4, ring.capacity());
+
+        for (int i = 0; i < 4; i++) assertTrue(ring.offer(i));
+        assertFalse(ring.offer(4));
+        assertEquals(0, ring.poll().intValue());
+        assertTrue(ring.offer(4));
+
+        List<Integer> drained = new ArrayList<Integer>();
+        assertEquals(4, ring.drainTo(drained, 10));
+        assertEquals(Arrays.asList(1, 2, 3, 4), drained);
+        assertNull(ring.poll());
+
+    }
+
+    /*
+     * Each producer adds its own numbers in order, spinning while the
+     * ring is full. The consumer must see every number exactly once,
+     * and each producer's numbers in the order they were added.
+     */
+    @Test(timeout = 60000)
+    public void multipleProducers() throws Exception {
+
+        final LockFreeRing<Integer> ring = new LockFreeRing<Integer>(64, LockFreeRing.Producers.MULTIPLE);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            Thread thread = new Thread("producer-" + p) {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < ITEMS_EACH; i++) {
+                        Integer item = producer * ITEMS_EACH + i;
+                        while (!ring.offer(item)) Thread.yield();
+                    }
+                }
+            };
+            thread.start();
+            producers.add(thread);
+        }
+        start.countDown();
+
+        boolean[] seen = new boolean[PRODUCERS * ITEMS_EACH];
+        int[] next = new int[PRODUCERS];
+        List<Integer> batch = new ArrayList<Integer>();
+        int received = 0;
+        while (received < seen.length) {
+            batch.clear();
+            // Use both ways of taking elements.
+            if (received % 2 == 0) {
+                Integer item = ring.poll();
+                if (item != null) batch.add(item);
+            } else {
+                ring.drainTo(batch, 16);
+            }
+            if (batch.isEmpty()) Thread.yield();
+
+            for (Integer item : batch) {
+                assertFalse("Duplicate " + item, seen[item]);
+                seen[item] = true;
+                int producer = item / ITEMS_EACH;
+                assertEquals(producer * ITEMS_EACH + next[producer], item.intValue());
+                next[producer]++;
+                received++;
+            }
+        }
+
+        for (Thread thread : producers) thread.join();
+        assertNull(ring.poll());
+        for (int p = 0; p < PRODUCERS; p++) assertEquals(ITEMS_EACH, next[p]);
+
+    }
+
+}
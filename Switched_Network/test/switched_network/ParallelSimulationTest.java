@@ -0,0 +1,118 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests that a network run by a ParallelSimulation, with any number of
+ * threads, gives the same results as when run by a single Simulation.
+ *
+ */
+public class ParallelSimulationTest {
+
+    private final static int RACKS = 4;
+    private final static int HOSTS = 8;
+    private final static int MESSAGES = 50;
+
+
+    /*
+     * Racks of hosts under a core switch. Every host sends to the host
+     * in the same position in the next rack, so all traffic crosses
+     * partitions, and takes whatever it has received in between.
+     */
+    private static Network build(NetworkBuilder builder) throws Exception {
+
+        builder.setTrunkLatency(5, TimeUnit.MICROSECONDS).addSwitch("core", 8);
+        for (int r = 0; r < RACKS; r++) {
+            builder.addSwitch("rack" + r, 16)
+                   .addTrunk("rack" + r, "core")
+                   .addHosts("r" + r + "-", "10." + r + ".0.1", HOSTS, "rack" + r);
+        }
+
+        builder.addApplication("r*", new ApplicationFactory() {
+            public Application create(final ComputerOS computerOS, String[] args) {
+                return new Application("peer", computerOS) {
+                    public void run() {
+                        String name = computerOS.getHostname();
+                        int rack = name.charAt(1) - '0';
+                        int host = Integer.parseInt(name.substring(name.indexOf('-') + 1));
+                        InetAddress to = Packet.toInetAddress(10 << 24 | (rack + 1) % RACKS << 16 | host + 1);
+                        try {
+                            for (int i = 0; i < MESSAGES; i++) {
+                                sleep(10 + host);
+                                computerOS.send(("message " + i).getBytes(), to, 1, 80);
+                                while (computerOS.poll(80) != null) { }
+                            }
+                        } catch (InterruptedException e) {
+                            // Stopped.
+                        }
+                    }
+                };
+            }
+        });
+
+        Network network = builder.build();
+        network.powerUp();
+        network.startApplications();
+        return network;
+
+    }
+
+    /*What each computer received and when, as measured by its metrics*/
+    private static String results(Network network, long now) {
+        StringBuilder results = new StringBuilder();
+        for (Computer computer : network.getComputers()) {
+            ComputerMetrics metrics = computer.getMetrics();
+            results.append(computer.getHostname()).append(' ')
+                   .append(metrics.getPacketsReceived()).append(' ')
+                   .append(metrics.getLatencyMaxNanos()).append(' ')
+                   .append(metrics.getLatencyMeanNanos()).append('\n');
+        }
+        return results.append("now ").append(now).toString();
+    }
+
+    private static String runSingle() throws Exception {
+        Simulation simulation = new Simulation();
+        Network network = build(new NetworkBuilder().setSimulation(simulation));
+        simulation.run();
+        return results(network, simulation.now());
+    }
+
+    private static String runParallel(int threads) throws Exception {
+        ParallelSimulation simulation = new ParallelSimulation(RACKS + 1, 5, TimeUnit.MICROSECONDS);
+        simulation.setParallelism(threads);
+        Network network = build(new NetworkBuilder().setParallelSimulation(simulation));
+        simulation.run();
+        return results(network, simulation.now());
+    }
+
+    @Test(timeout = 60000)
+    public void sameAsSingleSimulation() throws Exception {
+
+        String single = runSingle();
+        assertEquals(single, runParallel(1));
+        assertEquals(single, runParallel(3));
+        assertEquals(single, runParallel(RACKS + 1));
+
+    }
+
+    @Test(timeout = 60000)
+    public void everyMessageArrives() throws Exception {
+
+        String single = runSingle();
+        for (String line : single.split("\n")) {
+            if (!line.startsWith("now")) assertEquals(line, MESSAGES, Integer.parseInt(line.split(" ")[1]));
+        }
+
+    }
+
+}
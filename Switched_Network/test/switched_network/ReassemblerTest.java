@@ -0,0 +1,127 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of Reassembler with fragments arriving out of order, twice,
+ * or too late.
+ *
+ */
+public class ReassemblerTest {
+
+    private final static int SOURCE = 0x0A000001;
+    private final static int FRAGMENT = 1000;
+    private final static long TIMEOUT = 1000;
+
+
+    private static byte[] message(int length) {
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) message[i] = (byte) (i * 31);
+        return message;
+    }
+
+    /*The given fragment of the message*/
+    private static Packet fragment(int messageId, byte[] message, int index) {
+        int offset = index * FRAGMENT;
+        return Packet.create(SOURCE, 0x0A000002, 1, 2, Packet.DEFAULT_TRAFFIC_CLASS, messageId,
+                             message, offset, Math.min(FRAGMENT, message.length - offset), false);
+    }
+
+    @Test
+    public void outOfOrder() {
+
+        Reassembler reassembler = new Reassembler(1 << 20, Reassembler.UNLIMITED, TIMEOUT);
+        byte[] message = message(4500);
+
+        int[] order = { 3, 0, 4, 2 };
+        for (int index : order) assertNull(reassembler.add(fragment(7, message, index), 0));
+        assertEquals(4 * FRAGMENT - 500, reassembler.getPendingBytes());
+
+        Packet whole = reassembler.add(fragment(7, message, 1), 0);
+        assertNotNull(whole);
+        assertArrayEquals(message, whole.copyPayload());
+        whole.release();
+
+        assertEquals(0, reassembler.getPendingBytes());
+        assertEquals(0, reassembler.getFailures());
+
+    }
+
+    @Test
+    public void duplicateIsDropped() {
+
+        Reassembler reassembler = new Reassembler(1 << 20, Reassembler.UNLIMITED, TIMEOUT);
+        byte[] message = message(3000);
+
+        assertNull(reassembler.add(fragment(1, message, 0), 0));
+        assertNull(reassembler.add(fragment(1, message, 0), 0));
+        assertEquals(1, reassembler.getFailures());
+        assertEquals(FRAGMENT, reassembler.getPendingBytes());
+
+        assertNull(reassembler.add(fragment(1, message, 2), 0));
+        Packet whole = reassembler.add(fragment(1, message, 1), 0);
+        assertArrayEquals(message, whole.copyPayload());
+        whole.release();
+
+    }
+
+    @Test
+    public void timedOutMessageIsGivenUp() {
+
+        Reassembler reassembler = new Reassembler(1 << 20, Reassembler.UNLIMITED, TIMEOUT);
+        byte[] late = message(2000);
+        byte[] other = message(2000);
+
+        assertNull(reassembler.add(fragment(1, late, 0), 0));
+
+        // A new message after the timeout makes the old one be given up.
+        assertNull(reassembler.add(fragment(2, other, 0), TIMEOUT + 1));
+        assertEquals(1, reassembler.getFailures());
+        assertEquals(FRAGMENT, reassembler.getPendingBytes());
+
+        // So its last fragment only starts it again.
+        assertNull(reassembler.add(fragment(1, late, 1), TIMEOUT + 2));
+
+        Packet whole = reassembler.add(fragment(2, other, 1), TIMEOUT + 2);
+        assertArrayEquals(other, whole.copyPayload());
+        whole.release();
+
+    }
+
+    @Test
+    public void budgetAndMessageLimit() {
+
+        Reassembler reassembler = new Reassembler(2500, 8000, TIMEOUT);
+
+        // Over the budget, but the only message being reassembled.
+        byte[] large = message(6000);
+        Packet whole = null;
+        for (int index = 0; index < 6; index++) whole = reassembler.add(fragment(1, large, index), 0);
+        assertArrayEquals(large, whole.copyPayload());
+        whole.release();
+
+        // Over the limit for one message.
+        assertNull(reassembler.add(fragment(2, message(9000), 0), 0));
+        assertEquals(1, reassembler.getOversizeMessages());
+        assertEquals(0, reassembler.getPendingBytes());
+
+        // A second message pushes the oldest one out of the budget.
+        assertNull(reassembler.add(fragment(3, message(3000), 0), 0));
+        assertNull(reassembler.add(fragment(3, message(3000), 1), 0));
+        assertNull(reassembler.add(fragment(4, message(3000), 0), 0));
+        assertEquals(1, reassembler.getFailures());
+        assertEquals(FRAGMENT, reassembler.getPendingBytes());
+
+    }
+
+}
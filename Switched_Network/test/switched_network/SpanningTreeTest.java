@@ -0,0 +1,183 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests that SpanningTree blocks just the trunks which close a loop,
+ * and that a switch sends nothing over a blocked trunk.
+ *
+ */
+public class SpanningTreeTest {
+
+    /*A network card which counts what it is sent*/
+    private static class Card implements NetworkCard {
+
+        final InetAddress address;
+        final AtomicInteger received = new AtomicInteger();
+
+        Card(int address) {
+            this.address = Packet.toInetAddress(address);
+        }
+
+        public InetAddress getIPAddress() {
+            return address;
+        }
+
+        public void connectPort(SwitchPort lanPort) {
+        }
+
+        public void sendToComputer(Packet packet) {
+            received.incrementAndGet();
+        }
+
+        public boolean offerToComputer(Packet packet) {
+            received.incrementAndGet();
+            return true;
+        }
+
+    }
+
+    private static NetworkSwitch[] switches(int count) {
+        NetworkSwitch[] switches = new NetworkSwitch[count];
+        for (int i = 0; i < count; i++) {
+            switches[i] = new NetworkSwitch(4);
+        }
+        return switches;
+    }
+
+    private static TrunkLink link(NetworkSwitch a, int portA, NetworkSwitch b, int portB) {
+        return new TrunkLink(a.getPort(portA), b.getPort(portB));
+    }
+
+    @Test
+    public void treeIsLeftAlone() {
+
+        NetworkSwitch[] s = switches(3);
+        TrunkLink ab = link(s[0], 0, s[1], 0);
+        TrunkLink bc = link(s[1], 1, s[2], 0);
+
+        assertEquals(0, SpanningTree.configure(Arrays.asList(ab, bc)));
+        assertFalse(ab.isBlocked());
+        assertFalse(bc.isBlocked());
+
+    }
+
+    /*
+     * In a triangle rooted at C the trunk between the other two
+     * switches closes the loop, so both its ports are blocked.
+     */
+    @Test
+    public void triangleBlocksTheTrunkAwayFromTheRoot() {
+
+        NetworkSwitch[] s = switches(3);
+        s[2].setBridgePriority(4096);
+        TrunkLink ab = link(s[0], 0, s[1], 0);
+        TrunkLink bc = link(s[1], 1, s[2], 0);
+        TrunkLink ca = link(s[2], 1, s[0], 1);
+
+        assertEquals(1, SpanningTree.configure(Arrays.asList(ab, bc, ca)));
+        assertTrue(ab.isBlocked());
+        assertTrue(s[0].getPort(0).isBlocked());
+        assertTrue(s[1].getPort(0).isBlocked());
+        assertFalse(bc.isBlocked());
+        assertFalse(ca.isBlocked());
+
+    }
+
+    /*
+     * Between switches of the same priority the lowest bridge ID is
+     * the root, whatever order the switches were created in.
+     */
+    @Test
+    public void tiesGoToTheLowestBridgeId() {
+
+        NetworkSwitch[] s = switches(3);
+        s[0].setBridgeId(30);
+        s[1].setBridgeId(20);
+        s[2].setBridgeId(10);
+        TrunkLink ab = link(s[0], 0, s[1], 0);
+        TrunkLink bc = link(s[1], 1, s[2], 0);
+        TrunkLink ca = link(s[2], 1, s[0], 1);
+
+        assertEquals(1, SpanningTree.configure(Arrays.asList(ab, bc, ca)));
+        assertTrue(ab.isBlocked());
+
+    }
+
+    /*
+     * In a ring of four the blocked trunk is the one furthest from
+     * the root, and configuring again unblocks what is now in the tree.
+     */
+    @Test
+    public void ringFollowsTheRoot() {
+
+        NetworkSwitch[] s = switches(4);
+        TrunkLink ab = link(s[0], 0, s[1], 0);
+        TrunkLink bc = link(s[1], 1, s[2], 0);
+        TrunkLink cd = link(s[2], 1, s[3], 0);
+        TrunkLink da = link(s[3], 1, s[0], 1);
+        List<TrunkLink> ring = Arrays.asList(ab, bc, cd, da);
+
+        s[0].setBridgePriority(4096);
+        assertEquals(1, SpanningTree.configure(ring));
+        assertTrue(bc.isBlocked() || cd.isBlocked());
+        assertFalse(ab.isBlocked());
+        assertFalse(da.isBlocked());
+
+        s[0].setBridgePriority(NetworkSwitch.DEFAULT_BRIDGE_PRIORITY);
+        s[2].setBridgePriority(4096);
+        assertEquals(1, SpanningTree.configure(ring));
+        assertTrue(ab.isBlocked() || da.isBlocked());
+        assertFalse(bc.isBlocked());
+        assertFalse(cd.isBlocked());
+
+    }
+
+    @Test(timeout = 10000)
+    public void nothingCrossesABlockedTrunk() throws Exception {
+
+        NetworkSwitch[] s = switches(2);
+        TrunkLink ab = link(s[0], 0, s[1], 0);
+        Card[] cards = { new Card(0x0A000001), new Card(0x0A000002) };
+        s[0].getPort(1).connectNetworkCard(cards[0]);
+        s[1].getPort(1).connectNetworkCard(cards[1]);
+        ab.setBlocked(true);
+
+        s[0].powerUp();
+        s[1].powerUp();
+
+        // Flooded for want of an address, but not over the trunk.
+        s[0].getPort(1).sendToNetwork(Packet.create(0x0A000001, 0x0A000063, 1, 2, new byte[16], false));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (s[0].getUnknownDestinationCount(NetworkSwitch.UnknownDestinationPolicy.FLOOD) == 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        assertEquals(1, s[0].getUnknownDestinationCount(NetworkSwitch.UnknownDestinationPolicy.FLOOD));
+        assertEquals(0, cards[1].received.get());
+
+        ab.setBlocked(false);
+        s[0].getPort(1).sendToNetwork(Packet.create(0x0A000001, 0x0A000063, 1, 2, new byte[16], false));
+        while (cards[1].received.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, cards[1].received.get());
+
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests of a computer sending through a SwitchPort whose ingress
+ * ring is full, and of a port delivering to a failing computer.
+ *
+ */
+public class SwitchPortTest {
+
+    private static Packet packet() {
+        return Packet.create(0x0A000001, 0x0A000002, 1, 2, new byte[16], false);
+    }
+
+    /*A port with a full ring of the given capacity, and a sender of one more packet*/
+    private static Thread blockedSender(final SwitchPort port, int capacity, final Packet packet) throws Exception {
+
+        port.configureIngressQueue(capacity, OverflowPolicy.BLOCK);
+        for (int i = 0; i < capacity; i++) port.sendToNetwork(packet());
+
+        Thread sender = new Thread() {
+            public void run() {
+                port.sendToNetwork(packet);
+            }
+        };
+        sender.start();
+
+        // Parked, not spinning, until there is room.
+        while (sender.getState() != Thread.State.TIMED_WAITING) Thread.sleep(1);
+        assertEquals(capacity, port.getQueueLength());
+        return sender;
+
+    }
+
+    @Test(timeout = 10000)
+    public void takingAPacketWakesTheSender() throws Exception {
+
+        SwitchPort port = new SwitchPort(0);
+        Packet last = packet();
+        Thread sender = blockedSender(port, 2, last);
+
+        port.getIncomingPacket();
+        sender.join();
+
+        port.getIncomingPacket();
+        assertSame(last, port.getIncomingPacket());
+        assertEquals(0, port.getDroppedPackets());
+
+    }
+
+    @Test(timeout = 10000)
+    public void drainingWakesTheSender() throws Exception {
+
+        SwitchPort port = new SwitchPort(0);
+        Packet last = packet();
+        Thread sender = blockedSender(port, 4, last);
+
+        List<Packet> taken = new ArrayList<Packet>();
+        assertEquals(4, port.drainIncomingPackets(taken, 8));
+        sender.join();
+
+        assertSame(last, port.getIncomingPacket());
+
+    }
+
+    @Test(timeout = 10000)
+    public void blockedSenderCanBeInterrupted() throws Exception {
+
+        SwitchPort port = new SwitchPort(0);
+        Thread sender = blockedSender(port, 2, packet());
+
+        sender.interrupt();
+        sender.join();
+
+        assertEquals(2, port.getQueueLength());
+        assertNotNull(port.getIncomingPacket());
+
+    }
+
+    @Test
+    public void dropTailNeverWaits() throws Exception {
+
+        SwitchPort port = new SwitchPort(0);
+        port.configureIngressQueue(2, OverflowPolicy.DROP_TAIL);
+        for (int i = 0; i < 3; i++) port.sendToNetwork(packet());
+
+        assertEquals(2, port.getQueueLength());
+        assertEquals(1, port.getDroppedPackets());
+        assertNotNull(port.getIncomingPacket());
+
+    }
+
+    @Test
+    public void computerFailuresAreCounted() throws Exception {
+
+        SwitchPort port = new SwitchPort(0);
+        port.connectNetworkCard(new NetworkCard() {
+            public InetAddress getIPAddress() {
+                return Packet.toInetAddress(0x0A000002);
+            }
+            public void connectPort(SwitchPort lanPort) {
+            }
+            public void sendToComputer(Packet packet) {
+                throw new IllegalStateException("Computer is broken");
+            }
+            public boolean offerToComputer(Packet packet) {
+                throw new IllegalStateException("Computer is broken");
+            }
+        });
+
+        port.sendToComputer(packet());
+        assertEquals(1, port.getMetrics().getDeliveryErrors());
+        assertEquals(0, port.getMetrics().getPacketsOut());
+
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests that TokenBucket lets through a burst and then the configured
+ * rate, when policing and when shaping.
+ *
+ */
+public class TokenBucketTest {
+
+    // 8 Mb/s is one byte per microsecond.
+    private final static long RATE = 8000000;
+    private final static int BURST = 1500;
+    private final static long MICROSECOND = 1000;
+
+
+    @Test
+    public void fullBucketPassesTheBurst() {
+
+        TokenBucket bucket = new TokenBucket(RATE, BURST);
+        assertTrue(bucket.tryConsume(BURST, 0));
+        assertFalse(bucket.tryConsume(1, 0));
+
+    }
+
+    @Test
+    public void tooBigIsNeverConformant() {
+
+        TokenBucket bucket = new TokenBucket(RATE, BURST);
+        assertFalse(bucket.tryConsume(BURST + 1, 0));
+
+        // And takes nothing from the bucket.
+        assertTrue(bucket.tryConsume(BURST, 0));
+
+    }
+
+    @Test
+    public void refillsAtTheRate() {
+
+        TokenBucket bucket = new TokenBucket(RATE, BURST);
+        assertTrue(bucket.tryConsume(BURST, 0));
+
+        assertFalse(bucket.tryConsume(500, 499 * MICROSECOND));
+        assertTrue(bucket.tryConsume(500, 500 * MICROSECOND));
+        assertFalse(bucket.tryConsume(1, 500 * MICROSECOND));
+
+        // Never fills beyond the burst however long it is left.
+        assertTrue(bucket.tryConsume(BURST, 1000000 * MICROSECOND));
+        assertFalse(bucket.tryConsume(1, 1000000 * MICROSECOND));
+
+    }
+
+    /*
+     * Offered twice the rate for a second, a policer passes the burst
+     * and then one second's worth of bytes.
+     */
+    @Test
+    public void policedTrafficConformsToTheRate() {
+
+        TokenBucket bucket = new TokenBucket(RATE, BURST);
+        long passed = 0;
+        for (long now = 0; now < 1000000 * MICROSECOND; now += 50 * MICROSECOND) {
+            if (bucket.tryConsume(100, now)) passed += 100;
+        }
+
+        assertEquals(BURST + RATE / 8, passed, 100);
+
+    }
+
+    @Test
+    public void shaperSaysHowLongToWait() {
+
+        TokenBucket bucket = new TokenBucket(RATE, BURST);
+        assertEquals(0, bucket.consume(BURST, 0));
+        assertEquals(1000 * MICROSECOND, bucket.consume(1000, 0));
+
+        // The debt is paid off before anything more can go.
+        assertEquals(1500 * MICROSECOND, bucket.consume(1000, 500 * MICROSECOND));
+
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rateMustBePositive() {
+        new TokenBucket(0, BURST);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void burstMustBePositive() {
+        new TokenBucket(RATE, 0);
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests that TopologyLoader reports a description it cannot use
+ * with the line at fault and what is wrong with it.
+ *
+ */
+public class TopologyLoaderTest {
+
+    private final static String NETWORK =
+            "switch s 4\n"
+          + "host A 1.2.3.4 s:0\n"
+          + "host B 1.2.3.7 s:1\n";
+
+    /*Load the description, which must fail with the given message*/
+    private static void rejects(String description, String message) throws Exception {
+        try {
+            new TopologyLoader().load(new StringReader(description));
+            fail("Loaded " + description);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    @Test
+    public void loadsTheMainNetwork() throws Exception {
+        new TopologyLoader().load(new StringReader(NETWORK
+                + "# comments and blank lines are skipped\n\n"
+                + "app B parrot 9999\n"
+                + "app A hello 1.2.3.7 9999   # trailing comment\n"));
+    }
+
+    @Test
+    public void unknownStatement() throws Exception {
+        rejects("switch s 4\nrouter r 2\n", "Line 2: Unknown statement router");
+    }
+
+    @Test
+    public void wrongNumberOfValues() throws Exception {
+        rejects("switch s\n", "Line 1: Wrong number of values for switch");
+    }
+
+    @Test
+    public void unknownApplicationType() throws Exception {
+        rejects(NETWORK + "app A telnet 23\n", "Line 4: Unknown application type telnet");
+    }
+
+    @Test
+    public void missingApplicationArgument() throws Exception {
+        rejects(NETWORK + "app A parrot\n", "Line 4: Application parrot takes 1 arguments but was given 0");
+    }
+
+    @Test
+    public void extraApplicationArgument() throws Exception {
+        rejects(NETWORK + "app A hello 1.2.3.7 9999 10\n", "Line 4: Application hello takes 2 arguments but was given 3");
+    }
+
+    @Test
+    public void badPortArgument() throws Exception {
+        rejects(NETWORK + "app A parrot 99999\n", "Line 4: Argument 1 of application parrot is not a valid port: 99999");
+        rejects(NETWORK + "app A parrot echo\n", "Line 4: Argument 1 of application parrot is not a valid port: echo");
+    }
+
+    @Test
+    public void badAddressArgument() throws Exception {
+        rejects(NETWORK + "app A hello 1.2.3 9999\n", "Line 4: Argument 1 of application hello is not a valid address: 1.2.3");
+    }
+
+    @Test
+    public void uncheckedApplicationTakesAnything() throws Exception {
+
+        TopologyLoader loader = new TopologyLoader();
+        loader.registerApplication("parrot", new ApplicationFactory() {
+            public Application create(ComputerOS computerOS, String[] args) {
+                return new ParrotServer(computerOS, 9999);
+            }
+        });
+        loader.load(new StringReader(NETWORK + "app A parrot any thing\n"));
+
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownArgumentType() {
+        new TopologyLoader().registerApplication("x", null, "float");
+    }
+
+    @Test
+    public void broadcastHost() throws Exception {
+        rejects("switch s 4\nhost A 255.255.255.255 s\n",
+                "Line 2: Host A cannot have the broadcast or multicast address 255.255.255.255");
+    }
+
+    @Test
+    public void multicastHost() throws Exception {
+        rejects("switch s 4\nhost A 239.1.2.3 s\n",
+                "Line 2: Host A cannot have the broadcast or multicast address 239.1.2.3");
+    }
+
+    @Test
+    public void hostsRunPastTheLastAddress() throws Exception {
+        rejects("switch s 16\nhosts w 255.255.255.250 10 s\n",
+                "Line 2: Addresses of hosts w* run past 255.255.255.255");
+    }
+
+    @Test
+    public void badHostAddress() throws Exception {
+        rejects("switch s 4\nhost A 1.2.3.256 s\n", "Line 2: Not an IPv4 address: 1.2.3.256");
+    }
+
+    @Test
+    public void duplicateHost() throws Exception {
+        rejects(NETWORK + "host A 1.2.3.5 s\n", "Line 4: Duplicate host A");
+    }
+
+    @Test
+    public void hostOnUnknownSwitch() throws Exception {
+        rejects("host A 1.2.3.4 t\n", "Line 1: Unknown switch t");
+    }
+
+}
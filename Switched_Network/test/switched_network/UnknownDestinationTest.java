@@ -0,0 +1,137 @@
+/*
+ *  (c) K.Bryson, Dept. of Computer Science, UCL (2013)
+ */
+
+package switched_network;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ *
+ * Tests that NetworkSwitch floods, drops or sends to its uplink the
+ * packets for unknown destinations, and counts each under the policy
+ * actually applied.
+ *
+ */
+public class UnknownDestinationTest {
+
+    private final static int UNKNOWN = 0x0A000063;
+    private final static long WAIT_MS = 5000;
+
+
+    /*A network card which counts what it is sent*/
+    private static class Card implements NetworkCard {
+
+        final InetAddress address;
+        final AtomicInteger received = new AtomicInteger();
+
+        Card(int address) {
+            this.address = Packet.toInetAddress(address);
+        }
+
+        public InetAddress getIPAddress() {
+            return address;
+        }
+
+        public void connectPort(SwitchPort lanPort) {
+        }
+
+        public void sendToComputer(Packet packet) {
+            received.incrementAndGet();
+        }
+
+        public boolean offerToComputer(Packet packet) {
+            received.incrementAndGet();
+            return true;
+        }
+
+    }
+
+    private NetworkSwitch networkSwitch;
+    private Card[] cards;
+
+
+    /*A switch with cards on all ports but the last, sent one packet for nowhere*/
+    private void sendUnknown(NetworkSwitch.UnknownDestinationPolicy policy, int uplink) throws Exception {
+
+        networkSwitch = new NetworkSwitch(4);
+        networkSwitch.setUnknownDestinationPolicy(policy);
+        if (uplink >= 0) networkSwitch.setUplinkPort(uplink);
+
+        cards = new Card[3];
+        for (int i = 0; i < cards.length; i++) {
+            cards[i] = new Card(0x0A000001 + i);
+            networkSwitch.getPort(i).connectNetworkCard(cards[i]);
+        }
+        networkSwitch.powerUp();
+
+        networkSwitch.getPort(0).sendToNetwork(Packet.create(0x0A000001, UNKNOWN, 1, 2, new byte[16], false));
+
+    }
+
+    /*Wait for the switch to count the packet under the policy, then for the cards*/
+    private void expect(NetworkSwitch.UnknownDestinationPolicy policy, int... received) throws Exception {
+
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (networkSwitch.getUnknownDestinationCount(policy) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        for (int i = 0; i < received.length; i++) {
+            while (cards[i].received.get() < received[i] && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+        // Anything sent where it should not be has had time to arrive.
+        Thread.sleep(50);
+
+        for (NetworkSwitch.UnknownDestinationPolicy counted : NetworkSwitch.UnknownDestinationPolicy.values()) {
+            assertEquals(counted.toString(), counted == policy ? 1 : 0, networkSwitch.getUnknownDestinationCount(counted));
+        }
+        for (int i = 0; i < received.length; i++) {
+            assertEquals("card " + i, received[i], cards[i].received.get());
+        }
+
+    }
+
+    @Test
+    public void flood() throws Exception {
+        sendUnknown(NetworkSwitch.UnknownDestinationPolicy.FLOOD, -1);
+        expect(NetworkSwitch.UnknownDestinationPolicy.FLOOD, 0, 1, 1);
+    }
+
+    @Test
+    public void drop() throws Exception {
+        sendUnknown(NetworkSwitch.UnknownDestinationPolicy.DROP, -1);
+        expect(NetworkSwitch.UnknownDestinationPolicy.DROP, 0, 0, 0);
+    }
+
+    @Test
+    public void uplink() throws Exception {
+        sendUnknown(NetworkSwitch.UnknownDestinationPolicy.UPLINK, 2);
+        expect(NetworkSwitch.UnknownDestinationPolicy.UPLINK, 0, 0, 1);
+    }
+
+    @Test
+    public void noUplinkSetCountsAsDrop() throws Exception {
+        sendUnknown(NetworkSwitch.UnknownDestinationPolicy.UPLINK, -1);
+        expect(NetworkSwitch.UnknownDestinationPolicy.DROP, 0, 0, 0);
+    }
+
+    @Test
+    public void unconnectedUplinkCountsAsDrop() throws Exception {
+        sendUnknown(NetworkSwitch.UnknownDestinationPolicy.UPLINK, 3);
+        expect(NetworkSwitch.UnknownDestinationPolicy.DROP, 0, 0, 0);
+    }
+
+    @Test
+    public void uplinkIsNotTheIngressPort() throws Exception {
+        sendUnknown(NetworkSwitch.UnknownDestinationPolicy.UPLINK, 0);
+        expect(NetworkSwitch.UnknownDestinationPolicy.DROP, 0, 0, 0);
+    }
+
+}